@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs21.exceptions;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GlobalExceptionAdviceBenchmark
+ * Measures the error path: creating the exception (including its stack trace) and turning it into a response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobalExceptionAdviceBenchmark {
+
+    private GlobalExceptionAdvice globalExceptionAdvice;
+
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() {
+        globalExceptionAdvice = new GlobalExceptionAdvice(new SimpleMeterRegistry());
+        request = new MockHttpServletRequest("GET", "/users/1");
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> handleConflict() {
+        return globalExceptionAdvice.handleConflict(new IllegalStateException("conflict"), new ServletWebRequest(request));
+    }
+
+    // what the UserService throws for every 400/404, the stack trace makes up most of the cost
+    @Benchmark
+    public ResponseStatusException createResponseStatusException() {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, " User does not exist with this ID.");
+    }
+}
@@ -0,0 +1,106 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.Application;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseRecoveryBenchmark
+ * Measures how long the durable profile needs to get the users back after a restart: opening the database file as
+ * it was left, and restoring the latest snapshot first because the file is gone. The database is filled through the
+ * application with the durable profile (schema by Hibernate), then a snapshot is taken and the application is closed.
+ * Seeding a million users takes a few minutes per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseRecoveryBenchmark {
+
+    private static final String DATABASE = "users";
+
+    @Param({"100000", "1000000"})
+    private int rosterSize;
+
+    private Path directory;
+
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("users-durable");
+        url = "jdbc:h2:file:" + directory.resolve(DATABASE);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .profiles("durable")
+                .properties("logging.level.root=WARN")
+                // an argument, the default properties would not override the ones of the durable profile
+                .run("--users.durable.directory=" + directory);
+        try {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            for (int from = 1; from <= rosterSize; from += 10000) {
+                jdbcTemplate.update("INSERT INTO \"user\" (id, name, username, token, password, status, birth_day, creation_date, version) "
+                        + "SELECT X, 'Name ' || X, 'username' || X, RANDOM_UUID(), 'password', MOD(X, 2), '01.01.2000', CURRENT_TIMESTAMP, 0 "
+                        + "FROM SYSTEM_RANGE(?, ?)", from, Math.min(from + 9999, rosterSize));
+            }
+            context.getBean(DatabaseSnapshots.class).takeSnapshot();
+        }
+        finally {
+            context.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    /**
+     * The database file is gone before every iteration of restoreSnapshotAndOpen.
+     */
+    @State(Scope.Benchmark)
+    public static class MissingDatabase {
+
+        @Setup(Level.Iteration)
+        public void deleteDatabase(DatabaseRecoveryBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(benchmark.directory.resolve(DATABASE + ".mv.db"));
+        }
+    }
+
+    // restart as usual
+    @Benchmark
+    public long open() throws SQLException {
+        return countUsers();
+    }
+
+    // restart after the database file was lost
+    @Benchmark
+    public long restoreSnapshotAndOpen(MissingDatabase missingDatabase) throws SQLException {
+        DatabaseSnapshots.restoreLatestSnapshotIfMissing(directory, DATABASE);
+        return countUsers();
+    }
+
+    // the database is closed again with the connection, the next iteration opens it from the file
+    private long countUsers() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             ResultSet users = connection.createStatement().executeQuery("SELECT COUNT(*) FROM \"user\"")) {
+            users.next();
+            return users.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ch.uzh.ifi.hase.soprafs21.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * UserPayloadBenchmark
+ * Compares the formats the UserController can negotiate for the body of GET /users: how long Jackson needs to write
+ * and read a list of UsersGetDTOs as JSON, CBOR and Smile. The size of every payload, plain and gzipped, is printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserPayloadBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int rosterSize;
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    private ObjectWriter writer;
+
+    private ObjectReader reader;
+
+    private List<UsersGetDTO> usersGetDTOs;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        Jackson2ObjectMapperBuilder builder;
+        switch (format) {
+            case "cbor":
+                builder = Jackson2ObjectMapperBuilder.cbor();
+                break;
+            case "smile":
+                builder = Jackson2ObjectMapperBuilder.smile();
+                break;
+            default:
+                builder = Jackson2ObjectMapperBuilder.json();
+        }
+        ObjectMapper objectMapper = builder.build();
+        CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, UsersGetDTO.class);
+        writer = objectMapper.writerFor(listType);
+        reader = objectMapper.readerFor(listType);
+
+        usersGetDTOs = new ArrayList<>(rosterSize);
+        for (int i = 0; i < rosterSize; i++) {
+            User user = new User();
+            user.setId((long) i);
+            user.setName("Name " + i);
+            user.setUsername("username" + i);
+            user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+            user.setBirthDay("01.01.2000");
+            user.setCreationDate(new Date());
+            usersGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user));
+        }
+        payload = writer.writeValueAsBytes(usersGetDTOs);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(payload);
+        }
+        System.out.printf("%n%d users as %s: %d bytes, %d bytes gzipped%n",
+                rosterSize, format, payload.length, gzipped.size());
+    }
+
+    // body of GET /users
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(usersGetDTOs);
+    }
+
+    // what a client does with it
+    @Benchmark
+    public List<UsersGetDTO> deserialize() throws IOException {
+        return reader.readValue(payload);
+    }
+}
@@ -0,0 +1,74 @@
+package ch.uzh.ifi.hase.soprafs21.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserSerializationBenchmark
+ * Measures how long Jackson needs to write the user lists the UserController returns, for different roster sizes.
+ * The ObjectMapper is configured like the one of Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserSerializationBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int rosterSize;
+
+    private ObjectWriter usersGetDTOListWriter;
+
+    private ObjectWriter userGetDTOListWriter;
+
+    private List<UsersGetDTO> usersGetDTOs;
+
+    private List<UserGetDTO> userGetDTOs;
+
+    @Setup
+    public void setup() {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        usersGetDTOListWriter = builder.build().writerFor(builder.build().getTypeFactory()
+                .constructCollectionType(List.class, UsersGetDTO.class));
+        userGetDTOListWriter = builder.build().writerFor(builder.build().getTypeFactory()
+                .constructCollectionType(List.class, UserGetDTO.class));
+
+        usersGetDTOs = new ArrayList<>(rosterSize);
+        userGetDTOs = new ArrayList<>(rosterSize);
+        for (int i = 0; i < rosterSize; i++) {
+            User user = new User();
+            user.setId((long) i);
+            user.setName("Name " + i);
+            user.setUsername("username" + i);
+            user.setToken("token-" + i);
+            user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+            user.setBirthDay("01.01.2000");
+            user.setCreationDate(new Date());
+            usersGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user));
+            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        }
+    }
+
+    // body of GET /users
+    @Benchmark
+    public byte[] serializeUsersGetDTOList() throws JsonProcessingException {
+        return usersGetDTOListWriter.writeValueAsBytes(usersGetDTOs);
+    }
+
+    @Benchmark
+    public byte[] serializeUserGetDTOList() throws JsonProcessingException {
+        return userGetDTOListWriter.writeValueAsBytes(userGetDTOs);
+    }
+}
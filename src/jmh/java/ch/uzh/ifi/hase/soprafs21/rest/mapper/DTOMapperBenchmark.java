@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs21.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DTOMapperBenchmark
+ * Measures the conversions between the internal and the external/API representation of a user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+    private User user;
+
+    private UserPostDTO userPostDTO;
+
+    @Setup
+    public void setup() {
+        user = new User();
+        user.setId(1L);
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setPassword("password");
+        user.setToken("e2b4c1a0-8f7d-4a4e-9a43-3f1f2a6b7c8d");
+        user.setStatus(UserStatus.ONLINE);
+        user.setBirthDay("01.01.2000");
+        user.setCreationDate(new Date());
+
+        userPostDTO = new UserPostDTO();
+        userPostDTO.setName(user.getName());
+        userPostDTO.setUsername(user.getUsername());
+        userPostDTO.setPassword(user.getPassword());
+    }
+
+    @Benchmark
+    public UserGetDTO convertEntityToUserGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+
+    // includes the formatting of the creation date
+    @Benchmark
+    public UsersGetDTO convertEntityToUsersGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user);
+    }
+
+    @Benchmark
+    public User convertUserPostDTOtoEntity() {
+        return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    }
+}
@@ -0,0 +1,54 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoginThrottleBenchmark
+ * Measures the throughput of the login throttle with 8 threads: a credential-stuffing burst that spreads over many
+ * usernames and addresses, and one that hammers a single username from a single address, where every thread
+ * updates the same two buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LoginThrottleBenchmark {
+
+    private static final int KEYS = 100000;
+
+    private LoginThrottle loginThrottle;
+
+    private String[] usernames;
+
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        loginThrottle = new LoginThrottle(true, 65536, 5, 12, 20, 120, new SimpleMeterRegistry());
+        usernames = new String[KEYS];
+        addresses = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            usernames[i] = "username" + i;
+            addresses[i] = "10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+        }
+    }
+
+    @Benchmark
+    public ResponseStatusException manyUsernames() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return loginThrottle.check(usernames[random.nextInt(KEYS)], addresses[random.nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public ResponseStatusException singleUsername() {
+        return loginThrottle.check(usernames[0], addresses[0]);
+    }
+}
@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserSearchIndexBenchmark
+ * Measures GET /users/search without the web layer: a prefix that matches many users, a prefix that matches
+ * one user and a query with a typo that only the fuzzy lookups find, for different roster sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserSearchIndexBenchmark {
+
+    @Param({"10000", "1000000"})
+    private int rosterSize;
+
+    private UserSearchIndex userSearchIndex;
+
+    private String uniqueUsername;
+
+    @Setup
+    public void setup() {
+        userSearchIndex = new UserSearchIndex(null);
+        for (int i = 0; i < rosterSize; i++) {
+            UsersGetDTO user = new UsersGetDTO();
+            user.setId((long) i);
+            user.setName("Name " + i + " Lastname" + (i % 1000));
+            user.setUsername("username" + i);
+            user.setStatus(UserStatus.OFFLINE);
+            userSearchIndex.put(user);
+        }
+        uniqueUsername = "username" + (rosterSize / 2);
+    }
+
+    @Benchmark
+    public List<UsersGetDTO> searchCommonPrefix() {
+        return userSearchIndex.search("user", 10);
+    }
+
+    @Benchmark
+    public List<UsersGetDTO> searchUniquePrefix() {
+        return userSearchIndex.search(uniqueUsername, 10);
+    }
+
+    // "usernmae5000": swapped characters, found by the fuzzy lookups only
+    @Benchmark
+    public List<UsersGetDTO> searchWithTypo() {
+        return userSearchIndex.search("usernmae" + (rosterSize / 2), 10);
+    }
+}
@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.Application;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Slice;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserServiceBenchmark
+ * Measures the UserService operations of the hot paths against the in-memory H2 database,
+ * with the whole application context (transactions, repositories, caches) but without the web layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private final AtomicLong userCounter = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private User loginUser;
+
+    private String token;
+
+    private long userId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:benchmark", "logging.level.root=WARN")
+                .run();
+        userService = context.getBean(UserService.class);
+
+        User user = userService.createUser(newUser("benchmark"));
+        token = user.getToken();
+        userId = user.getId();
+        loginUser = new User();
+        loginUser.setUsername(user.getUsername());
+        loginUser.setPassword(user.getPassword());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // the table grows with every invocation, every user gets a new username and name
+    @Benchmark
+    public User createUser() {
+        return userService.createUser(newUser("user" + userCounter.incrementAndGet()));
+    }
+
+    @Benchmark
+    public User login() {
+        return userService.Login(loginUser);
+    }
+
+    @Benchmark
+    public UserGetDTO getUserByToken() {
+        return userService.getUserByToken(token);
+    }
+
+    @Benchmark
+    public UserGetDTO findUserById() {
+        return userService.findUserById(userId);
+    }
+
+    @Benchmark
+    public Slice<UsersGetDTO> getUsers() {
+        return userService.getUsers(0, 100);
+    }
+
+    private User newUser(String username) {
+        User user = new User();
+        user.setName(username);
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+}
@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs21.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * LatencyRecorder
+ * Collects the latencies (in nanoseconds) of one endpoint. Every worker thread has its own recorders,
+ * so recording needs no synchronization. The recorders are merged once the load test is over.
+ */
+class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+
+    private int size;
+
+    private long errors;
+
+    void record(long latencyNanos, boolean success) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = latencyNanos;
+        if (!success) {
+            errors++;
+        }
+    }
+
+    void addAll(LatencyRecorder other) {
+        if (size + other.size > latencies.length) {
+            latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, size + other.size));
+        }
+        System.arraycopy(other.latencies, 0, latencies, size, other.size);
+        size += other.size;
+        errors += other.errors;
+    }
+
+    int count() {
+        return size;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds below which the given percentage of the requests finished
+     */
+    double percentileMillis(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(index, size - 1))] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,319 @@
+package ch.uzh.ifi.hase.soprafs21.loadtest;
+
+import ch.uzh.ifi.hase.soprafs21.Application;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadTest
+ * Boots the application on a random port with its own in-memory database, seeds it with users and then drives
+ * a weighted mix of the UserController endpoints from several threads. For every endpoint the throughput and the
+ * latency percentiles are printed and written to a JSON summary, such that two builds can be compared.
+ *
+ * Configuration (system properties):
+ * - loadtest.users     number of users that are created before the test (default 1000)
+ * - loadtest.threads   number of concurrent clients (default 16)
+ * - loadtest.warmup    seconds of load that are not measured (default 5)
+ * - loadtest.duration  seconds of load that are measured (default 30)
+ * - loadtest.mix       weight per endpoint, e.g. "register=5,login=20,token=30,list=15,getById=20,edit=5,logout=5"
+ * - loadtest.modes     "platform", "virtual" and/or "reactive" (comma separated): which threads handle the requests
+ *                      (reactive: the WebFlux profile), every mode is run against a fresh application (default platform)
+ * - loadtest.server-threads  maximum number of Tomcat threads in the platform mode (default 200)
+ * - loadtest.login-throttle   keep the login throttle on (default false): all clients log in from 127.0.0.1, so
+ *                      with the throttle most logins would be answered with 429 and the login path not measured
+ * - loadtest.output    file the JSON summary (one entry per mode) is written to
+ * Every other system property is passed to the application (e.g. -Dspring.profiles.active=...).
+ */
+public class LoadTest {
+
+    enum Endpoint {
+        REGISTER("register"), LOGIN("login"), TOKEN("token"), LIST("list"), GET_BY_ID("getById"), EDIT("edit"), LOGOUT("logout");
+
+        private final String key;
+
+        Endpoint(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final String DEFAULT_MIX = "register=5,login=20,token=30,list=15,getById=20,edit=5,logout=5";
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final AtomicLong registeredUsers = new AtomicLong();
+
+    private final String baseUrl;
+
+    private final List<UserGetDTO> seededUsers = new ArrayList<>();
+
+    LoadTest(int port) {
+        this.baseUrl = "http://localhost:" + port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("loadtest.users", 1000);
+        int threads = Integer.getInteger("loadtest.threads", 16);
+        int warmupSeconds = Integer.getInteger("loadtest.warmup", 5);
+        int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+        Map<Endpoint, Integer> mix = parseMix(System.getProperty("loadtest.mix", DEFAULT_MIX));
+        String[] modes = System.getProperty("loadtest.modes", "platform").split(",");
+        Integer serverThreads = Integer.getInteger("loadtest.server-threads");
+        boolean loginThrottle = Boolean.getBoolean("loadtest.login-throttle");
+        String output = System.getProperty("loadtest.output", "build/reports/loadtest/summary.json");
+
+        // every mode gets its own application (and database), the results are compared side by side
+        Map<String, Object> summaries = new LinkedHashMap<>();
+        for (String mode : modes) {
+            mode = mode.trim();
+            if (!mode.equals("platform") && !mode.equals("virtual") && !mode.equals("reactive")) {
+                throw new IllegalArgumentException("Unknown mode in loadtest.modes: " + mode);
+            }
+            List<String> properties = new ArrayList<>(Arrays.asList("server.port=0", "spring.datasource.url=jdbc:h2:mem:loadtest-" + mode,
+                    "logging.level.root=WARN", "users.virtual-threads.enabled=" + mode.equals("virtual")));
+            if (mode.equals("reactive")) {
+                properties.add("spring.profiles.active=reactive");
+            }
+            if (serverThreads != null) {
+                properties.add("server.tomcat.threads.max=" + serverThreads);
+            }
+            properties.add("users.login-throttle.enabled=" + loginThrottle);
+            // as arguments, default properties would be overridden by application.properties
+            List<String> arguments = new ArrayList<>();
+            properties.forEach(property -> arguments.add("--" + property));
+            arguments.addAll(Arrays.asList(args));
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                    .run(arguments.toArray(new String[0]))) {
+                int port = Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+                LoadTest loadTest = new LoadTest(port);
+
+                long seedStart = System.nanoTime();
+                loadTest.seed(users);
+                System.out.printf("[%s threads] Seeded %d users in %d ms%n", mode, users, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart));
+
+                Map<Endpoint, LatencyRecorder> results = loadTest.run(mix, threads, warmupSeconds, durationSeconds);
+                Map<String, Object> summary = summarize(results, users, threads, durationSeconds, mix);
+                summary.put("serverThreads", serverThreads);
+                print(mode, summary);
+                summaries.put(mode, summary);
+            }
+        }
+
+        File outputFile = new File(output);
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(outputFile, summaries);
+        System.out.println("Summary written to " + outputFile.getAbsolutePath());
+    }
+
+    void seed(int users) throws IOException, InterruptedException {
+        for (int from = 0; from < users; from += SEED_BATCH_SIZE) {
+            List<UserPostDTO> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SEED_BATCH_SIZE, users); i++) {
+                batch.add(newUser("seed" + i));
+            }
+            HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/users/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(batch))));
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding failed with status " + response.statusCode() + ": " + response.body());
+            }
+            for (UserBatchResultDTO result : objectMapper.readValue(response.body(), UserBatchResultDTO[].class)) {
+                if (result.getUser() != null) {
+                    result.getUser().setUsername("seed" + (from + result.getIndex()));
+                    seededUsers.add(result.getUser());
+                }
+            }
+        }
+    }
+
+    Map<Endpoint, LatencyRecorder> run(Map<Endpoint, Integer> mix, int threads, int warmupSeconds, int durationSeconds)
+            throws Exception {
+        Endpoint[] weightedEndpoints = mix.entrySet().stream()
+                .flatMap(entry -> Collections.nCopies(entry.getValue(), entry.getKey()).stream())
+                .toArray(Endpoint[]::new);
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Map<Endpoint, LatencyRecorder>>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(executor.submit(() -> {
+                Map<Endpoint, LatencyRecorder> recorders = new EnumMap<>(Endpoint.class);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    Endpoint endpoint = weightedEndpoints[random.nextInt(weightedEndpoints.length)];
+                    boolean success;
+                    try {
+                        success = call(endpoint, seededUsers.get(random.nextInt(seededUsers.size())));
+                    }
+                    catch (IOException e) {
+                        success = false;
+                    }
+                    long latency = System.nanoTime() - now;
+                    if (now >= measureStart) {
+                        recorders.computeIfAbsent(endpoint, e -> new LatencyRecorder()).record(latency, success);
+                    }
+                }
+                return recorders;
+            }));
+        }
+
+        Map<Endpoint, LatencyRecorder> results = new EnumMap<>(Endpoint.class);
+        for (Future<Map<Endpoint, LatencyRecorder>> worker : workers) {
+            worker.get().forEach((endpoint, recorder) ->
+                    results.computeIfAbsent(endpoint, e -> new LatencyRecorder()).addAll(recorder));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private boolean call(Endpoint endpoint, UserGetDTO user) throws IOException, InterruptedException {
+        HttpRequest.Builder request;
+        switch (endpoint) {
+            case REGISTER:
+                request = json("/users", "POST", newUser("user" + registeredUsers.incrementAndGet()));
+                break;
+            case LOGIN:
+                LoginPostDTO loginPostDTO = new LoginPostDTO();
+                loginPostDTO.setUsername(user.getUsername());
+                loginPostDTO.setPassword("password");
+                request = json("/login", "POST", loginPostDTO);
+                break;
+            case TOKEN:
+                UserGetDTO tokenDTO = new UserGetDTO();
+                tokenDTO.setToken(user.getToken());
+                request = json("/token", "POST", tokenDTO);
+                break;
+            case LIST:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/users")).GET();
+                break;
+            case GET_BY_ID:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + user.getId())).GET();
+                break;
+            case EDIT:
+                UserPutDTO userPutDTO = new UserPutDTO();
+                userPutDTO.setName(user.getUsername());
+                userPutDTO.setUsername(user.getUsername());
+                userPutDTO.setBirthDay(String.format("%02d.%02d.2000", ThreadLocalRandom.current().nextInt(1, 29),
+                        ThreadLocalRandom.current().nextInt(1, 13)));
+                request = json("/users/" + user.getId(), "PUT", userPutDTO);
+                break;
+            case LOGOUT:
+                LoginPostDTO logoutDTO = new LoginPostDTO();
+                logoutDTO.setToken(user.getToken());
+                request = json("/logout", "PUT", logoutDTO);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+        }
+        int status = send(request).statusCode();
+        // two virtual users may edit the same user at once, the second edit is rejected as intended
+        return status >= 200 && status < 400 || endpoint == Endpoint.EDIT && status == 409;
+    }
+
+    private HttpRequest.Builder json(String path, String method, Object body) throws IOException {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return httpClient.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static UserPostDTO newUser(String username) {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName(username);
+        userPostDTO.setUsername(username);
+        userPostDTO.setPassword("password");
+        return userPostDTO;
+    }
+
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] keyAndWeight = entry.trim().split("=");
+            Endpoint endpoint = Arrays.stream(Endpoint.values())
+                    .filter(e -> e.key.equals(keyAndWeight[0].trim()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown endpoint in loadtest.mix: " + keyAndWeight[0]));
+            int weight = Integer.parseInt(keyAndWeight[1].trim());
+            if (weight > 0) {
+                weights.put(endpoint, weight);
+            }
+        }
+        return weights;
+    }
+
+    private static Map<String, Object> summarize(Map<Endpoint, LatencyRecorder> results, int users, int threads,
+                                                 int durationSeconds, Map<Endpoint, Integer> mix) {
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        LatencyRecorder total = new LatencyRecorder();
+        results.forEach((endpoint, recorder) -> {
+            endpoints.put(endpoint.key, summarize(recorder, durationSeconds));
+            total.addAll(recorder);
+        });
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("users", users);
+        summary.put("threads", threads);
+        summary.put("durationSeconds", durationSeconds);
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        mix.forEach((endpoint, weight) -> weights.put(endpoint.key, weight));
+        summary.put("mix", weights);
+        summary.put("total", summarize(total, durationSeconds));
+        summary.put("endpoints", endpoints);
+        return summary;
+    }
+
+    private static Map<String, Object> summarize(LatencyRecorder recorder, int durationSeconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", recorder.count());
+        summary.put("errors", recorder.errors());
+        summary.put("throughputPerSecond", (double) recorder.count() / durationSeconds);
+        summary.put("p50Millis", recorder.percentileMillis(50));
+        summary.put("p95Millis", recorder.percentileMillis(95));
+        summary.put("p99Millis", recorder.percentileMillis(99));
+        summary.put("p999Millis", recorder.percentileMillis(99.9));
+        summary.put("maxMillis", recorder.percentileMillis(100));
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(String mode, Map<String, Object> summary) {
+        System.out.printf("%n%s threads%n", mode);
+        System.out.printf("%-10s %10s %8s %10s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms");
+        Map<String, Object> rows = new LinkedHashMap<>((Map<String, Object>) summary.get("endpoints"));
+        rows.put("total", summary.get("total"));
+        rows.forEach((name, value) -> {
+            Map<String, Object> row = (Map<String, Object>) value;
+            System.out.printf("%-10s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", name, row.get("requests"), row.get("errors"),
+                    row.get("throughputPerSecond"), row.get("p50Millis"), row.get("p95Millis"), row.get("p99Millis"), row.get("p999Millis"));
+        });
+    }
+}
@@ -0,0 +1,167 @@
+package ch.uzh.ifi.hase.soprafs21.loadtest;
+
+import ch.uzh.ifi.hase.soprafs21.Application;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StartupBenchmark
+ * Starts the application in a new JVM again and again and measures the time from launching the process until
+ * GET /users first answers with 200, i.e. how long a new instance needs before it can take traffic. Every mode is
+ * started several times; the minimum, the median and the maximum are printed and written to a JSON summary.
+ *
+ * Modes:
+ * - default         the application as it is deployed
+ * - fast-start      with the fast-start profile (lazy beans, Hibernate without the JDBC metadata lookup)
+ * - fast-start-cds  the fast-start profile with the class-data-sharing archive of ./gradlew cdsArchive
+ *
+ * Configuration (system properties):
+ * - startup.modes        comma separated (default "default,fast-start,fast-start-cds")
+ * - startup.runs         measured starts per mode (default 5), after one start that is not measured
+ * - startup.java         java executable the application is started with (default: the one running this benchmark)
+ * - startup.classpath    class path of the application, only jars for the archive to be used (required)
+ * - startup.cds-archive  the archive written by ./gradlew cdsArchive (required for fast-start-cds)
+ * - startup.output       file the JSON summary is written to, the output of every start is written next to it
+ */
+public class StartupBenchmark {
+
+    private static final List<String> MODES = Arrays.asList("default", "fast-start", "fast-start-cds");
+
+    private static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    private final String java;
+
+    private final String classpath;
+
+    private final String cdsArchive;
+
+    private final File logDirectory;
+
+    StartupBenchmark(String java, String classpath, String cdsArchive, File logDirectory) {
+        this.java = java;
+        this.classpath = classpath;
+        this.cdsArchive = cdsArchive;
+        this.logDirectory = logDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = System.getProperty("startup.modes", String.join(",", MODES)).split(",");
+        int runs = Integer.getInteger("startup.runs", 5);
+        String java = System.getProperty("startup.java",
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String classpath = System.getProperty("startup.classpath");
+        if (classpath == null) {
+            throw new IllegalArgumentException("startup.classpath is required");
+        }
+        File outputFile = new File(System.getProperty("startup.output", "build/reports/startup/summary.json"));
+        File logDirectory = outputFile.getAbsoluteFile().getParentFile();
+        logDirectory.mkdirs();
+        StartupBenchmark benchmark = new StartupBenchmark(java, classpath, System.getProperty("startup.cds-archive"), logDirectory);
+
+        Map<String, Object> summaries = new LinkedHashMap<>();
+        for (String mode : modes) {
+            mode = mode.trim();
+            if (!MODES.contains(mode)) {
+                throw new IllegalArgumentException("Unknown mode in startup.modes: " + mode);
+            }
+            // the first start fills the page cache of the operating system with the jars
+            benchmark.timeToFirstResponse(mode, 0);
+            long[] times = new long[runs];
+            for (int run = 1; run <= runs; run++) {
+                times[run - 1] = benchmark.timeToFirstResponse(mode, run);
+                System.out.printf("[%s] start %d: first GET /users after %d ms%n", mode, run, times[run - 1]);
+            }
+            Arrays.sort(times);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("runs", runs);
+            summary.put("minMillis", times[0]);
+            summary.put("medianMillis", times[runs / 2]);
+            summary.put("maxMillis", times[runs - 1]);
+            summaries.put(mode, summary);
+        }
+
+        System.out.printf("%n%-16s %8s %8s %8s%n", "mode", "min ms", "p50 ms", "max ms");
+        summaries.forEach((mode, value) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> summary = (Map<String, Object>) value;
+            System.out.printf("%-16s %8d %8d %8d%n", mode, summary.get("minMillis"), summary.get("medianMillis"), summary.get("maxMillis"));
+        });
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(outputFile, summaries);
+        System.out.println("Summary written to " + outputFile.getAbsolutePath());
+    }
+
+    /**
+     * @return milliseconds from starting the JVM of the application until GET /users returned 200
+     */
+    long timeToFirstResponse(String mode, int run) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>(Collections.singletonList(java));
+        if (mode.endsWith("-cds")) {
+            if (cdsArchive == null || !new File(cdsArchive).exists()) {
+                throw new IllegalStateException("No class-data-sharing archive at " + cdsArchive + ", run ./gradlew cdsArchive first");
+            }
+            // fails instead of silently starting without the archive, e.g. if the class path changed since it was written
+            command.addAll(Arrays.asList("-XX:SharedArchiveFile=" + cdsArchive, "-Xshare:on"));
+        }
+        command.addAll(Arrays.asList("-cp", classpath, Application.class.getName(), "--server.port=" + port));
+        if (mode.startsWith("fast-start")) {
+            command.add("--spring.profiles.active=fast-start");
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users"))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(logDirectory, mode + "-" + run + ".log"))
+                .start();
+        try {
+            while (true) {
+                try {
+                    if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                }
+                catch (IOException e) {
+                    // not listening yet
+                }
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The application exited with " + process.exitValue() + ", see " + mode + "-" + run + ".log");
+                }
+                if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > TIMEOUT_MS) {
+                    throw new IllegalStateException("No successful GET /users within " + TIMEOUT_MS + " ms, see " + mode + "-" + run + ".log");
+                }
+                Thread.sleep(5);
+            }
+        }
+        finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
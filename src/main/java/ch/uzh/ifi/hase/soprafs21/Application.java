@@ -1,20 +1,26 @@
 package ch.uzh.ifi.hase.soprafs21;
 
+import ch.uzh.ifi.hase.soprafs21.controller.UserController;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @RestController
 @SpringBootApplication
+@EnableScheduling
 public class Application {
 
     public static void main(String[] args) {
-        SpringApplication.run(Application.class, args);
+        SpringApplication application = new SpringApplication(Application.class);
+        application.addListeners(FastStartConfiguration.componentIndex());
+        application.run(args);
     }
 
     @GetMapping(value = "/", produces = MediaType.TEXT_PLAIN_VALUE)
@@ -29,7 +35,8 @@ public class Application {
         return new WebMvcConfigurer() {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
-                registry.addMapping("/**").allowedOrigins("*").allowedMethods("*");
+                registry.addMapping("/**").allowedOrigins("*").allowedMethods("*")
+                        .exposedHeaders(UserController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG);
             }
         };
     }
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import ch.uzh.ifi.hase.soprafs21.repository.DatabaseSnapshots;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Durable Storage Configuration
+ * With the durable profile the users are kept in an H2 database file (see application-durable.properties) instead of
+ * in memory. Before the first connection is opened, the newest snapshot is restored if the file is missing
+ * (DatabaseSnapshots); then the database is opened and its users counted, and the time this recovery took is logged.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("durable")
+public class DurableStorageConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(DurableStorageConfiguration.class);
+
+    // static: a BeanPostProcessor is created before the other beans, without this configuration
+    @Bean
+    public static BeanPostProcessor durableDataSourceRecovery(@Value("${users.durable.directory:./data}") String directory,
+                                                              @Value("${users.durable.database:users}") String database) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource) {
+                    recover((DataSource) bean, Paths.get(directory), database);
+                }
+                return bean;
+            }
+        };
+    }
+
+    static void recover(DataSource dataSource, Path directory, String database) {
+        long start = System.currentTimeMillis();
+        Path snapshot = DatabaseSnapshots.restoreLatestSnapshotIfMissing(directory, database);
+        long restored = System.currentTimeMillis();
+        long users;
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            users = countUsers(statement);
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Could not open the user database in " + directory.toAbsolutePath().normalize(), e);
+        }
+        long opened = System.currentTimeMillis();
+        if (snapshot == null) {
+            log.info("Recovered {} users from {} in {} ms", users, directory.toAbsolutePath().normalize(), opened - start);
+        }
+        else {
+            log.warn("The user database was missing, recovered {} users from the snapshot {} in {} ms (restore {} ms, open {} ms)",
+                    users, snapshot, opened - start, restored - start, opened - restored);
+        }
+    }
+
+    // 0 on the first start, the table is created by Hibernate afterwards
+    private static long countUsers(Statement statement) throws SQLException {
+        try (ResultSet tables = statement.executeQuery(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = 'user'")) {
+            tables.next();
+            if (tables.getLong(1) == 0) {
+                return 0;
+            }
+        }
+        try (ResultSet users = statement.executeQuery("SELECT COUNT(*) FROM \"user\"")) {
+            users.next();
+            return users.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.SpringProperties;
+import org.springframework.core.env.Profiles;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Fast Start Configuration
+ * The fast-start profile (see application-fast-start.properties) shortens the time until a new instance answers its
+ * first request. The components are read from META-INF/spring.components instead of scanned for (see
+ * componentIndex). Together with the class-data-sharing archive of ./gradlew cdsArchive the JVM loads the classes of
+ * the application from a memory mapped archive instead of from the jars.
+ * The archive is written when the JVM of a training run exits: with users.startup.exit-after-ready=true the
+ * application sends itself one GET /users once it is ready, such that the classes of a request are archived too,
+ * and exits.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("fast-start")
+public class FastStartConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(FastStartConfiguration.class);
+
+    /**
+     * Uses the index of the components that spring-context-indexer writes at compile time if the fast-start profile is
+     * active. Otherwise it stays off (spring.properties): a component missing from the index, e.g. because its class
+     * was compiled without the indexer, would be missing from the application without any error.
+     * Has to be added to the SpringApplication, the index is read before the first bean is defined.
+     */
+    static ApplicationListener<ApplicationEnvironmentPreparedEvent> componentIndex() {
+        return event -> {
+            if (event.getEnvironment().acceptsProfiles(Profiles.of("fast-start"))) {
+                SpringProperties.setProperty("spring.index.ignore", "false");
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "users.startup.exit-after-ready", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> exitAfterReady() {
+        return event -> {
+            ConfigurableApplicationContext context = event.getApplicationContext();
+            String port = context.getEnvironment().getProperty("local.server.port");
+            if (port != null) {
+                try {
+                    HttpResponse<Void> response = HttpClient.newHttpClient().send(
+                            HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users")).build(),
+                            HttpResponse.BodyHandlers.discarding());
+                    log.info("Training request GET /users answered with {}", response.statusCode());
+                }
+                catch (IOException e) {
+                    log.warn("Training request GET /users failed", e);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            System.exit(SpringApplication.exit(context));
+        };
+    }
+}
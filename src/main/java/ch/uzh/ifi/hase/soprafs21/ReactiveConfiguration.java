@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import ch.uzh.ifi.hase.soprafs21.controller.UserController;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Reactive Configuration
+ * With the "reactive" profile the user API runs on WebFlux and Netty with a small, fixed number of event loop threads
+ * (users.reactive.event-loop-threads), and the database is accessed with R2DBC.
+ * The R2DBC connection pool points at the same H2 database as the JPA DataSource (spring.datasource.url), whose
+ * schema Hibernate still creates. The pool is deliberately not a ConnectionFactory bean: Spring Boot would
+ * then add an R2DBC transaction manager, which replaces the JPA one.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("reactive")
+public class ReactiveConfiguration implements DisposableBean {
+
+    private final ConnectionPool connectionPool;
+
+    public ReactiveConfiguration(@Value("${spring.datasource.url}") String url,
+                                 @Value("${spring.datasource.username}") String username,
+                                 @Value("${spring.datasource.password}") String password,
+                                 @Value("${users.reactive.pool-size:10}") int poolSize) {
+        if (!url.startsWith("jdbc:h2:")) {
+            throw new IllegalStateException("The reactive profile only supports H2, but the datasource is " + url);
+        }
+        H2ConnectionFactory connectionFactory = new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+                .url(url.substring("jdbc:h2:".length()))
+                .username(username)
+                .password(password)
+                .build());
+        this.connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory)
+                .maxSize(poolSize)
+                .build());
+    }
+
+    @Bean
+    public DatabaseClient databaseClient() {
+        return DatabaseClient.create(connectionPool);
+    }
+
+    // declared explicitly, Spring Boot would prefer Tomcat, which is on the classpath for the servlet stack
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory(@Value("${users.reactive.event-loop-threads:4}") int eventLoopThreads) {
+        NettyReactiveWebServerFactory factory = new NettyReactiveWebServerFactory();
+        LoopResources loopResources = LoopResources.create("users-http", eventLoopThreads, true);
+        factory.addServerCustomizers(httpServer -> httpServer.runOn(loopResources));
+        return factory;
+    }
+
+    @Bean
+    public WebFluxConfigurer reactiveCorsConfigurer() {
+        return new WebFluxConfigurer() {
+            @Override
+            public void addCorsMappings(CorsRegistry registry) {
+                registry.addMapping("/**").allowedOrigins("*").allowedMethods("*")
+                        .exposedHeaders(UserController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG);
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        connectionPool.dispose();
+    }
+}
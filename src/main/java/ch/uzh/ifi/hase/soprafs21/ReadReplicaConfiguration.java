@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import ch.uzh.ifi.hase.soprafs21.repository.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read Replica Configuration
+ * With users.datasource.replicas (comma separated JDBC URLs, same credentials as spring.datasource) the read-only
+ * transactions that do not require the primary (in the UserService: the export) are spread over the replicas and
+ * everything else goes to spring.datasource.url (ReplicaRoutingDataSource). Every database gets its own Hikari pool with the spring.datasource.hikari settings;
+ * keeping the replicas up to date is the job of the databases, not of this application, and so is telling how far
+ * behind they are (users.datasource.replica-lag-query, required).
+ * Locally, several H2 databases can play the replicas, e.g. jdbc:h2:tcp://localhost/~/replica1 with a lag query on a
+ * table that is updated by hand.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnExpression("!'${users.datasource.replicas:}'.isBlank()")
+public class ReadReplicaConfiguration {
+
+    // replaces the DataSource of Spring Boot, which only backs off if there is none
+    @Bean
+    @Primary
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties, Environment environment,
+                                               @Value("${users.datasource.replicas}") String[] replicaUrls,
+                                               @Value("${users.datasource.max-replica-lag-ms:1000}") long maxReplicaLagMs,
+                                               @Value("${users.datasource.replica-lag-query:}") String replicaLagQuery,
+                                               @Value("${users.datasource.replica-check-interval-ms:1000}") long replicaCheckIntervalMs) {
+        // a constant query would make every replica look fresh, however far behind it is
+        if (replicaLagQuery.isBlank()) {
+            throw new IllegalStateException("users.datasource.replica-lag-query has to be set if users.datasource.replicas is.");
+        }
+        HikariDataSource primary = pool(properties, environment, "primary", properties.determineUrl());
+        List<HikariDataSource> replicas = new ArrayList<>(replicaUrls.length);
+        for (int i = 0; i < replicaUrls.length; i++) {
+            HikariDataSource replica = pool(properties, environment, "replica-" + (i + 1), replicaUrls[i].trim());
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, maxReplicaLagMs, replicaLagQuery, replicaCheckIntervalMs);
+    }
+
+    // Spring Boot adds the metrics of the primary pool (hikaricp.connections.*, it unwraps the DataSource bean to it),
+    // the replica pools are no beans
+    @Bean
+    public MeterBinder replicaPoolMetrics(ReplicaRoutingDataSource dataSource) {
+        return registry -> dataSource.getReplicaPools()
+                .forEach(replica -> replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+    }
+
+    private static HikariDataSource pool(DataSourceProperties properties, Environment environment, String name, String url) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setPoolName(name);
+        return pool;
+    }
+}
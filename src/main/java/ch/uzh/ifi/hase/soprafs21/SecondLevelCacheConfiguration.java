@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Second-Level Cache Configuration
+ * Hibernate keeps the User entities, the username -> id resolutions (natural id) and the results of the cacheable
+ * queries (e.g., the lookup by token) in Caffeine caches, so a user that is read again is not read from the database.
+ * The caches are created here rather than by Hibernate, such that their size (users.cache.maximum-size) and their
+ * time to live (users.cache.expire-after-write-ms) can be set like any other property. The hits and misses are
+ * published as hibernate.second.level.cache.requests and hibernate.cache.natural.id.requests (hibernate-micrometer).
+ */
+@Configuration(proxyBeanMethods = false)
+public class SecondLevelCacheConfiguration {
+
+    @Bean
+    public CacheManager hibernateCacheManager(@Value("${users.cache.maximum-size:10000}") long maximumSize,
+                                              @Value("${users.cache.expire-after-write-ms:600000}") long expireAfterWriteMs) {
+        // a cache manager of its own, the default one of the provider would be shared by every application context
+        CachingProvider cachingProvider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = cachingProvider.getCacheManager(
+                URI.create("hibernate:" + UUID.randomUUID()), cachingProvider.getDefaultClassLoader());
+        for (String region : new String[]{User.CACHE_REGION, User.NATURAL_ID_CACHE_REGION, RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME}) {
+            CaffeineConfiguration<Object, Object> configuration = newConfiguration();
+            configuration.setMaximumSize(OptionalLong.of(maximumSize));
+            configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMs)));
+            cacheManager.createCache(region, configuration);
+        }
+        // the last change per table, which tells whether a cached query result is stale, must never be evicted
+        cacheManager.createCache(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME, newConfiguration());
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, ConfigSettings.SIMPLE_FACTORY_NAME);
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, true);
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            // every region is created above, a missing one is a typo in a region name
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> newConfiguration() {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        // Hibernate only puts immutable, disassembled entries into the cache, copying them on every access is not needed
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        return configuration;
+    }
+}
@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs21;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual Threads Configuration
+ * Opt-in with users.virtual-threads.enabled=true: Tomcat handles every request on a new virtual thread instead of
+ * on its bounded pool of platform threads (server.tomcat.threads.max). The UserService and the JPA calls run on the
+ * request thread, so a request that waits for the database no longer blocks a platform thread; the limit is the
+ * connection pool (spring.datasource.hikari.maximum-pool-size) instead.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "users.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -0,0 +1,187 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.*;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs21.service.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs21.service.ReactiveUserService;
+import ch.uzh.ifi.hase.soprafs21.service.RosterVersion;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ch.uzh.ifi.hase.soprafs21.controller.UserController.*;
+
+/**
+ * Reactive User Controller
+ * The endpoints of the UserController on WebFlux, active with the "reactive" profile instead of the UserController.
+ * Same paths, DTOs and status codes; a request only occupies a thread while it is actually working, never while it
+ * waits for the database. GET /users/events is only available on the servlet stack.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveUserController {
+
+    private final ReactiveUserService userService;
+
+    private final RosterVersion rosterVersion;
+
+    private final LoginThrottle loginThrottle;
+
+    ReactiveUserController(ReactiveUserService userService, RosterVersion rosterVersion, LoginThrottle loginThrottle) {
+        this.userService = userService;
+        this.rosterVersion = rosterVersion;
+        this.loginThrottle = loginThrottle;
+    }
+
+    // 1
+    @GetMapping("/users")
+    public Mono<ResponseEntity<List<UsersGetDTO>>> getAllUsers(@RequestParam(defaultValue = "0") long after,
+                                                               @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                                               ServerWebExchange exchange) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit has to be between 1 and %d.", MAX_PAGE_SIZE)));
+        }
+        // the version has to be read before the users, otherwise a change in between could be hidden behind the new ETag
+        String eTag = "\"" + rosterVersion.current() + "-" + after + "-" + limit + "\"";
+        if (exchange.checkNotModified(eTag)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build());
+        }
+        return userService.getUsers(after, limit).map(users -> {
+            List<UsersGetDTO> usersGetDTO = new ArrayList<UsersGetDTO>(users.getNumberOfElements());
+            for (User user : users) {
+                usersGetDTO.add(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user));
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT);
+            if (users.hasNext()) {
+                response.header(NEXT_CURSOR_HEADER, String.valueOf(usersGetDTO.get(usersGetDTO.size() - 1).getId()));
+            }
+            return response.body(usersGetDTO);
+        });
+    }
+
+    // 2
+    @PostMapping("/users")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UserGetDTO> createUser(@RequestBody UserPostDTO userPostDTO) {
+        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        return userService.createUser(userInput).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    // 3
+    @PostMapping("/login")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UserGetDTO> createUser(@RequestBody LoginPostDTO loginPostDTO, ServerWebExchange exchange) {
+        InetSocketAddress clientAddress = exchange.getRequest().getRemoteAddress();
+        ResponseStatusException throttled = loginThrottle.check(loginPostDTO.getUsername(),
+                clientAddress == null ? null : clientAddress.getHostString());
+        if (throttled != null) {
+            return Mono.error(throttled);
+        }
+        User userInput = DTOMapper.INSTANCE.convertLoginPostDTOtoEntity(loginPostDTO);
+        return userService.login(userInput).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    // 4
+    @GetMapping("/users/{userId}")
+    public Mono<ResponseEntity<UserGetDTO>> getUserById(@PathVariable("userId") long userId, ServerWebExchange exchange) {
+        return userService.findUserById(userId).map(user -> {
+            String eTag = "\"" + user.getId() + "-" + user.getVersion() + "-" + user.getStatus() + "\"";
+            if (exchange.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+            }
+            return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        });
+    }
+
+    // 5
+    @PutMapping("/logout")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<UserGetDTO> logoutUser(@RequestBody LoginPostDTO loginPostDTO) {
+        User userInput = DTOMapper.INSTANCE.convertLoginPostDTOtoEntity(loginPostDTO);
+        return userService.logout(userInput).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    // 6
+    @PutMapping("/users/{userId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> editUser(@RequestBody UserPutDTO userPutDTO, @PathVariable("userId") long userId) {
+        User user = DTOMapper.INSTANCE.convertUserPutDTOToEntity(userPutDTO);
+        return userService.edit(userId, user).then();
+    }
+
+    // 7
+    @PostMapping("/token")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<UserGetDTO> userByToken(@RequestBody UserGetDTO userGetDTO) {
+        return userService.getUserByToken(userGetDTO.getToken());
+    }
+
+    // 8
+    // WebFlux writes every element of the Flux as one line, as soon as it was read from the database
+    @GetMapping(value = "/users/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UsersGetDTO> streamAllUsers() {
+        return userService.exportUsers().map(DTOMapper.INSTANCE::convertEntityToUsersGetDTO);
+    }
+
+    // 9
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<List<UserBatchResultDTO>> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        if (userPostDTOs.size() > MAX_BATCH_SIZE) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d users can be created at once.", MAX_BATCH_SIZE)));
+        }
+        if (userPostDTOs.contains(null)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "The users to be created must not be null."));
+        }
+        List<User> userInputs = new ArrayList<User>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+        }
+        return userService.createUsers(userInputs).map(errors -> {
+            List<UserBatchResultDTO> results = new ArrayList<UserBatchResultDTO>(userInputs.size());
+            for (int i = 0; i < userInputs.size(); i++) {
+                UserBatchResultDTO result = new UserBatchResultDTO();
+                result.setIndex(i);
+                ResponseStatusException error = errors.get(i);
+                if (error != null) {
+                    result.setStatus(error.getRawStatusCode());
+                    result.setMessage(error.getReason());
+                }
+                else {
+                    result.setStatus(HttpStatus.CREATED.value());
+                    result.setUser(DTOMapper.INSTANCE.convertEntityToUserGetDTO(userInputs.get(i)));
+                }
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
+    // 11
+    @GetMapping("/users/search")
+    public Mono<List<UsersGetDTO>> searchUsers(@RequestParam String q,
+                                               @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) {
+        if (q.trim().isEmpty()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "The search query must not be empty."));
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit has to be between 1 and %d.", MAX_SEARCH_LIMIT)));
+        }
+        return Mono.just(userService.searchUsers(q, limit));
+    }
+}
@@ -3,15 +3,32 @@ package ch.uzh.ifi.hase.soprafs21.controller;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.*;
 import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs21.service.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs21.service.RosterVersion;
 import ch.uzh.ifi.hase.soprafs21.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.annotation.QueryAnnotation;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * User Controller
@@ -19,12 +36,43 @@ import java.util.List;
  * The controller will receive the request and delegate the execution to the UserService and finally return the result.
  */
 @RestController
+@Profile("!reactive")
 public class UserController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    static final int MAX_BATCH_SIZE = 10000;
+
+    static final int DEFAULT_SEARCH_LIMIT = 10;
+
+    static final int MAX_SEARCH_LIMIT = 100;
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final RosterVersion rosterVersion;
+
+    private final UserEventBroadcaster userEventBroadcaster;
+
+    private final UserPageCache userPageCache;
+
+    private final LoginThrottle loginThrottle;
+
+    // writes one UsersGetDTO at a time without closing the underlying response stream
+    private final ObjectWriter usersGetDTOWriter;
+
+    UserController(UserService userService, RosterVersion rosterVersion, UserEventBroadcaster userEventBroadcaster,
+                   UserPageCache userPageCache, LoginThrottle loginThrottle, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.rosterVersion = rosterVersion;
+        this.userEventBroadcaster = userEventBroadcaster;
+        this.userPageCache = userPageCache;
+        this.loginThrottle = loginThrottle;
+        this.usersGetDTOWriter = objectMapper.writerFor(UsersGetDTO.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     /**
@@ -36,19 +84,47 @@ public class UserController {
      **/
 
     // 1
+    // users are returned page by page (keyset pagination), the id of the last user is sent back
+    // in the X-Next-Cursor header and has to be passed as ?after= to get the next page
+    // the ETag only depends on the roster version, the page and the representation (format and gzip), so
+    // If-None-Match is answered without the database
+    // the body is JSON, CBOR or Smile depending on the Accept header, hence "Vary: Accept"
+    // the pages are cached as bytes (gzipped if the client accepts it) until the roster version changes
     @GetMapping("/users")
-    @ResponseStatus(HttpStatus.OK)
-    @ResponseBody
-    public List<UsersGetDTO> getAllUsers() {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UsersGetDTO> usersGetDTO = new ArrayList<UsersGetDTO>();
-
-        // convert each user to the API representation
-        for (User user : users) {
-            usersGetDTO.add(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user));
+    public ResponseEntity<byte[]> getAllUsers(@RequestParam(defaultValue = "0") long after,
+                                              @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                              WebRequest request) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit has to be between 1 and %d.", MAX_PAGE_SIZE));
+        }
+        // the version has to be read before the users, otherwise a change in between could be hidden behind the new ETag
+        String version = rosterVersion.current();
+        MediaType mediaType = userPageCache.selectMediaType(request.getHeader(HttpHeaders.ACCEPT));
+        if (mediaType == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "The users are available as JSON, CBOR and Smile.");
+        }
+        // a strong ETag belongs to exactly one body: pages too small to be gzipped are sent as they are under the
+        // "-gzip" ETag as well, but never the other way around
+        boolean gzip = acceptsGzip(request);
+        String eTag = "\"" + version + "-" + after + "-" + limit + "-" + mediaType.getSubtype() + (gzip ? "-gzip" : "") + "\"";
+        if (request.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        // fetch one page of users, already in the API representation, unless it is cached
+        UserPageCache.Page page = userPageCache.get(version, after, limit, mediaType, () -> userService.getUsers(after, limit));
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag)
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .contentType(page.getMediaType());
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.getNextCursor()));
         }
-        return usersGetDTO;
+        if (page.getGzippedBody() != null && gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.getGzippedBody());
+        }
+        return response.body(page.getBody());
     }
 
     // 2
@@ -70,7 +146,12 @@ public class UserController {
     @PostMapping("/login")
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
-    public UserGetDTO createUser(@RequestBody LoginPostDTO loginPostDTO) {
+    public UserGetDTO createUser(@RequestBody LoginPostDTO loginPostDTO, HttpServletRequest request) {
+        // too many attempts for the username or from the address are rejected before they reach the database
+        ResponseStatusException throttled = loginThrottle.check(loginPostDTO.getUsername(), request.getRemoteAddr());
+        if (throttled != null) {
+            throw throttled;
+        }
         // convert API user to internal representation
         User userInput = DTOMapper.INSTANCE.convertLoginPostDTOtoEntity(loginPostDTO);
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userService.Login(userInput));
@@ -79,15 +160,18 @@ public class UserController {
     // 4
     // getting user by id if there can be found a match, else throws error-message
     //TODO: not finished yet, what do I have to do in this one?
+    // the ETag is made of the version of the row and the current status, which is not stored in the row right away
     @GetMapping("/users/{userId}")
-    @ResponseStatus(HttpStatus.OK)
-    @ResponseBody
-    public UserGetDTO getUserById(@PathVariable("userId") long userId) {
-        User user = userService.findUserById(userId);
+    public ResponseEntity<UserGetDTO> getUserById(@PathVariable("userId") long userId, WebRequest request) {
+        UserGetDTO user = userService.findUserById(userId);
         if(user == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, " User does not exist with this ID.");
         }
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+        String eTag = "\"" + user.getId() + "-" + user.getVersion() + "-" + user.getStatus() + "\"";
+        if (request.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(user);
     }
 
     // 5
@@ -120,7 +204,95 @@ public class UserController {
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
     public UserGetDTO userByToken(@RequestBody UserGetDTO userGetDTO) {
-        User user = userService.getUserByToken(userGetDTO.getToken());
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+        return userService.getUserByToken(userGetDTO.getToken());
+    }
+
+    // 8
+    // export of all users as newline delimited JSON, every user is written to the response as soon
+    // as it was read from the database, so the whole list is never held in memory
+    @GetMapping(value = "/users/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamAllUsers(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream outputStream = response.getOutputStream();
+        userService.exportUsers(user -> {
+            try {
+                usersGetDTOWriter.writeValue(outputStream, user);
+                outputStream.write('\n');
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        outputStream.flush();
+    }
+
+    // 9
+    // creates many users with one request, the result of every user is reported at the same index
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        if (userPostDTOs.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d users can be created at once.", MAX_BATCH_SIZE));
+        }
+        if (userPostDTOs.contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The users to be created must not be null.");
+        }
+        // convert API users to internal representation
+        List<User> userInputs = new ArrayList<User>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+        }
+        // create users
+        Map<Integer, ResponseStatusException> errors = userService.createUsers(userInputs);
+
+        List<UserBatchResultDTO> results = new ArrayList<UserBatchResultDTO>(userInputs.size());
+        for (int i = 0; i < userInputs.size(); i++) {
+            UserBatchResultDTO result = new UserBatchResultDTO();
+            result.setIndex(i);
+            ResponseStatusException error = errors.get(i);
+            if (error != null) {
+                result.setStatus(error.getRawStatusCode());
+                result.setMessage(error.getReason());
+            }
+            else {
+                result.setStatus(HttpStatus.CREATED.value());
+                result.setUser(DTOMapper.INSTANCE.convertEntityToUserGetDTO(userInputs.get(i)));
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    // 10
+    // server-sent events instead of polling GET /users: every created or edited user and every
+    // change to ONLINE/OFFLINE is pushed, the event name tells which of the three it was
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter userEvents() {
+        return userEventBroadcaster.subscribe();
+    }
+
+    // 11
+    // "find a player": the users whose username or name starts with q, also with one typo,
+    // answered from the in-memory search index instead of loading all users
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UsersGetDTO> searchUsers(@RequestParam String q,
+                                         @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) {
+        if (q.trim().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The search query must not be empty.");
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit has to be between 1 and %d.", MAX_SEARCH_LIMIT));
+        }
+        return userService.searchUsers(q, limit);
+    }
+
+    private static boolean acceptsGzip(WebRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
     }
 }
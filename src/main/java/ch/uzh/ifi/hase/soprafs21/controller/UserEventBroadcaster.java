@@ -0,0 +1,308 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs21.service.UserChangedEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Event Broadcaster
+ * Pushes every committed UserChangedEvent to the subscribers of GET /users/events as a server-sent event.
+ * The event name is the kind of change (CREATED, EDITED, STATUS_CHANGED), the data is the user as in GET /users.
+ *
+ * An idle subscriber only costs its open connection: no request thread waits for it.
+ * Every subscriber has a small bounded buffer, which a few sender threads drain. A subscriber that does not
+ * keep up, i.e. whose buffer is full, is disconnected (the browser's EventSource reconnects on its own and
+ * should reload the list then) instead of slowing down the others or filling the memory.
+ * Writing to a client that stopped reading blocks its sender thread, which a later complete() cannot interrupt. A
+ * subscriber whose write takes longer than users.events.send-timeout-ms is therefore disconnected as well, and the
+ * blocked sender is replaced by an additional one until its write returns, so that stalled clients never take all
+ * the sender threads from the others.
+ * complete() waits for a write in progress as well, so only the sender of a subscriber completes its emitter, never
+ * the thread that publishes an event (a request thread, or the scheduler that also runs the presence and session
+ * jobs).
+ */
+@Component
+@Profile("!reactive")
+public class UserEventBroadcaster {
+
+    private static final long NOT_SENDING = 0;
+
+    private static final long STALLED = Long.MIN_VALUE;
+
+    private final Logger log = LoggerFactory.getLogger(UserEventBroadcaster.class);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // no longer sent to, but not completed yet by their sender, see disconnect
+    private final Set<Subscriber> disconnected = ConcurrentHashMap.newKeySet();
+
+    private final ObjectWriter usersGetDTOWriter;
+
+    private final ThreadPoolExecutor senders;
+
+    private final int senderThreads;
+
+    // senders whose write went past the timeout, the pool has that many threads more
+    private int blockedSenders;
+
+    private final int bufferSize;
+
+    private final int maxSubscribers;
+
+    private final long timeoutMillis;
+
+    private final long sendTimeoutNanos;
+
+    private final Counter evictions;
+
+    public UserEventBroadcaster(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                @Value("${users.events.buffer-size:64}") int bufferSize,
+                                @Value("${users.events.max-subscribers:10000}") int maxSubscribers,
+                                @Value("${users.events.timeout-ms:1800000}") long timeoutMillis,
+                                @Value("${users.events.sender-threads:4}") int senderThreads,
+                                @Value("${users.events.send-timeout-ms:5000}") long sendTimeoutMillis) {
+        this.usersGetDTOWriter = objectMapper.writerFor(UsersGetDTO.class);
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeoutMillis;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.senderThreads = senderThreads;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "user-events-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        meterRegistry.gaugeCollectionSize("users.events.subscribers", Tags.empty(), subscribers);
+        this.evictions = meterRegistry.counter("users.events.evictions");
+    }
+
+    public SseEmitter subscribe() {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many subscribers, try again later.");
+        }
+        Subscriber subscriber = new Subscriber(new SseEmitter(timeoutMillis), bufferSize);
+        subscriber.emitter.onCompletion(() -> remove(subscriber));
+        subscriber.emitter.onTimeout(() -> remove(subscriber));
+        subscriber.emitter.onError(e -> remove(subscriber));
+        subscribers.add(subscriber);
+        return subscriber.emitter;
+    }
+
+    // only committed changes are sent, a rolled back edit never reaches the clients
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        // serialized once, not once per subscriber
+        String data;
+        try {
+            data = usersGetDTOWriter.writeValueAsString(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(event.getUser()));
+        }
+        catch (JsonProcessingException e) {
+            log.error("Could not serialize the {} event of user {}", event.getType(), event.getUser().getId(), e);
+            return;
+        }
+        broadcast(new Message(event.getType().name(), data));
+    }
+
+    // lets proxies and the browser know that the connection is still alive, and finds the closed connections
+    @Scheduled(fixedDelayString = "${users.events.heartbeat-interval-ms:30000}")
+    public void sendHeartbeat() {
+        broadcast(Message.HEARTBEAT);
+    }
+
+    /**
+     * Disconnects the subscribers whose current write has been blocked for longer than the send timeout and adds a
+     * sender for each of them. A write is found at most two timeouts after it started.
+     */
+    @Scheduled(fixedDelayString = "${users.events.send-timeout-ms:5000}")
+    public void disconnectStalledSubscribers() {
+        long now = System.nanoTime();
+        subscribers.forEach(subscriber -> disconnectIfStalled(subscriber, now));
+        // their sender is still needed to complete them, a full buffer usually means that its write is blocked
+        disconnected.forEach(subscriber -> disconnectIfStalled(subscriber, now));
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        senders.shutdownNow();
+    }
+
+    private void broadcast(Message message) {
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.buffer.offer(message)) {
+                log.debug("Disconnecting a subscriber that does not keep up with the events");
+                evictions.increment();
+                disconnect(subscriber);
+            }
+            else {
+                scheduleSending(subscriber);
+            }
+        }
+    }
+
+    // at most one sender works on a subscriber at a time, so the order of the events is kept
+    private void scheduleSending(Subscriber subscriber) {
+        if (subscriber.sending.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> send(subscriber));
+            }
+            catch (RejectedExecutionException e) {
+                subscriber.sending.set(false);
+            }
+        }
+    }
+
+    private void disconnectIfStalled(Subscriber subscriber, long now) {
+        long sendStartedAt = subscriber.sendStartedAt.get();
+        // only succeeds while the very same write is still in progress, the sender sees the change once it returns
+        if (sendStartedAt != NOT_SENDING && sendStartedAt != STALLED && now - sendStartedAt > sendTimeoutNanos
+                && subscriber.sendStartedAt.compareAndSet(sendStartedAt, STALLED)) {
+            // complete() would wait for the blocked write, the sender completes the emitter once it returns
+            if (subscribers.remove(subscriber)) {
+                log.debug("Disconnecting a subscriber whose write is blocked");
+                evictions.increment();
+            }
+            disconnected.remove(subscriber);
+            subscriber.buffer.clear();
+            resizeSenders(1);
+        }
+    }
+
+    private void send(Subscriber subscriber) {
+        boolean stalled = false;
+        try {
+            Message message;
+            while (!stalled && !disconnected.contains(subscriber) && (message = subscriber.buffer.poll()) != null) {
+                long sendStartedAt = System.nanoTime();
+                subscriber.sendStartedAt.set(sendStartedAt);
+                try {
+                    subscriber.emitter.send(message.toEvent());
+                }
+                finally {
+                    stalled = !subscriber.sendStartedAt.compareAndSet(sendStartedAt, NOT_SENDING);
+                }
+            }
+        }
+        catch (IOException | IllegalStateException e) {
+            // the client is gone or the emitter was completed in the meantime
+            disconnect(subscriber);
+        }
+        finally {
+            subscriber.sending.set(false);
+            if (stalled) {
+                // the blocked write returned after all, this sender is not needed anymore
+                resizeSenders(-1);
+            }
+        }
+        // checked after sending was reset: a disconnect after that schedules a sender of its own
+        if (stalled || disconnected.contains(subscriber)) {
+            remove(subscriber);
+            subscriber.emitter.complete();
+        }
+        // a message that was added after the last poll but before sending was reset
+        else if (!subscriber.buffer.isEmpty()) {
+            scheduleSending(subscriber);
+        }
+    }
+
+    private synchronized void resizeSenders(int delta) {
+        blockedSenders += delta;
+        int size = senderThreads + blockedSenders;
+        // the maximum may never be below the core size
+        if (delta > 0) {
+            senders.setMaximumPoolSize(size);
+            senders.setCorePoolSize(size);
+        }
+        else {
+            senders.setCorePoolSize(size);
+            senders.setMaximumPoolSize(size);
+        }
+    }
+
+    // Stops sending to the subscriber, its sender completes the emitter: right away if there is no write in
+    // progress, otherwise once the write returned (or was found stalled).
+    private void disconnect(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            disconnected.add(subscriber);
+            subscriber.buffer.clear();
+            scheduleSending(subscriber);
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        disconnected.remove(subscriber);
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final BlockingQueue<Message> buffer;
+
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        // System.nanoTime() when the current write started, NOT_SENDING or STALLED (the write took too long)
+        private final AtomicLong sendStartedAt = new AtomicLong(NOT_SENDING);
+
+        private Subscriber(SseEmitter emitter, int bufferSize) {
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+
+    private static final class Message {
+
+        private static final Message HEARTBEAT = new Message(null, null);
+
+        private final String name;
+
+        private final String data;
+
+        private Message(String name, String data) {
+            this.name = name;
+            this.data = data;
+        }
+
+        // a new builder for every send, the builder cannot be sent twice
+        private SseEmitter.SseEventBuilder toEvent() {
+            if (this == HEARTBEAT) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+}
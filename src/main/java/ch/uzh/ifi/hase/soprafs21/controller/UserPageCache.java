@@ -0,0 +1,247 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.BinaryFormatsConfiguration;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User Page Cache
+ * Keeps the pages of GET /users as the bytes that are sent, once as they are and once gzipped, such that a page that
+ * did not change since it was last requested is written without the query, the mapping, Jackson or gzip.
+ * A page is stored together with the roster version it was built for and is built again (lazily, on the next
+ * request for it) once the version changed, i.e. after any user was created, edited or went ONLINE/OFFLINE.
+ * There is one entry per page and format (JSON, CBOR, Smile), the least recently used one is evicted once
+ * users.page-cache.maximum-size pages are cached.
+ * The bytes held are published as users.page.cache.bytes, the time to build a page as users.page.cache.builds and
+ * the size and the hits and misses as cache.size and cache.gets (cache=user-pages).
+ */
+@Component
+@Profile("!reactive")
+public class UserPageCache implements MeterBinder {
+
+    // smaller bodies are not worth compressing, the same threshold as server.compression.min-response-size
+    static final int MIN_COMPRESSED_SIZE = 2048;
+
+    private final Map<String, Page> pages;
+
+    // format -> writer of a page of users in that format, in the order a client without preference gets them
+    private final Map<MediaType, ObjectWriter> writers = new LinkedHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private Timer builds;
+
+    /**
+     * A page of users in one format, the bodies must not be modified.
+     */
+    public static final class Page {
+
+        private final String rosterVersion;
+
+        private final MediaType mediaType;
+
+        private final byte[] body;
+
+        // null if the body is too small to be compressed
+        private final byte[] gzippedBody;
+
+        // id of the last user if there are more users after this page, else null
+        private final Long nextCursor;
+
+        private Page(String rosterVersion, MediaType mediaType, byte[] body, byte[] gzippedBody, Long nextCursor) {
+            this.rosterVersion = rosterVersion;
+            this.mediaType = mediaType;
+            this.body = body;
+            this.gzippedBody = gzippedBody;
+            this.nextCursor = nextCursor;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public byte[] getGzippedBody() {
+            return gzippedBody;
+        }
+
+        public Long getNextCursor() {
+            return nextCursor;
+        }
+
+        private long bytes() {
+            return body.length + (gzippedBody == null ? 0 : gzippedBody.length);
+        }
+    }
+
+    public UserPageCache(ObjectMapper objectMapper, MappingJackson2CborHttpMessageConverter cborHttpMessageConverter,
+                         MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter,
+                         @Value("${users.page-cache.maximum-size:64}") int maximumSize) {
+        writers.put(MediaType.APPLICATION_JSON, listWriter(objectMapper));
+        writers.put(MediaType.APPLICATION_CBOR, listWriter(cborHttpMessageConverter.getObjectMapper()));
+        writers.put(BinaryFormatsConfiguration.APPLICATION_SMILE, listWriter(smileHttpMessageConverter.getObjectMapper()));
+        // access-ordered LinkedHashMap -> iteration order is LRU order, so the eldest entry is the one to evict
+        this.pages = Collections.synchronizedMap(new LinkedHashMap<String, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+                return size() > maximumSize;
+            }
+        });
+    }
+
+    /**
+     * Returns the page in the given format, built with the given loader if it is not cached for the current roster
+     * version. Two requests for the same outdated page may both build it, the later one is kept.
+     *
+     * @param rosterVersion the roster version read before the users, a page built for it is outdated once it changes
+     * @param mediaType one of the formats of selectMediaType
+     * @param loader loads the users of the page
+     */
+    public Page get(String rosterVersion, long after, int limit, MediaType mediaType, Supplier<Slice<UsersGetDTO>> loader) {
+        String key = after + "-" + limit + "-" + mediaType;
+        Page page = pages.get(key);
+        if (page != null && page.rosterVersion.equals(rosterVersion)) {
+            hits.increment();
+            return page;
+        }
+        misses.increment();
+        Timer.Sample sample = Timer.start();
+        page = build(rosterVersion, mediaType, loader.get());
+        if (builds != null) {
+            sample.stop(builds);
+        }
+        pages.put(key, page);
+        return page;
+    }
+
+    public void clear() {
+        pages.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    public long bytes() {
+        synchronized (pages) {
+            long bytes = 0;
+            for (Page page : pages.values()) {
+                bytes += page.bytes();
+            }
+            return bytes;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        builds = Timer.builder("users.page.cache.builds")
+                .description("Time to load, serialize and compress a page of GET /users")
+                .register(registry);
+        Gauge.builder("users.page.cache.bytes", this, UserPageCache::bytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("cache.size", this, UserPageCache::size)
+                .tag("cache", "user-pages")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, UserPageCache::getHits)
+                .tag("cache", "user-pages")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, UserPageCache::getMisses)
+                .tag("cache", "user-pages")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    private Page build(String rosterVersion, MediaType mediaType, Slice<UsersGetDTO> users) {
+        List<UsersGetDTO> usersGetDTOs = users.getContent();
+        byte[] body;
+        try {
+            body = writers.get(mediaType).writeValueAsBytes(usersGetDTOs);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize a page of users", e);
+        }
+        Long nextCursor = users.hasNext() ? usersGetDTOs.get(usersGetDTOs.size() - 1).getId() : null;
+        return new Page(rosterVersion, mediaType, body, body.length < MIN_COMPRESSED_SIZE ? null : gzip(body), nextCursor);
+    }
+
+    /**
+     * Returns the first format (JSON, CBOR or Smile) that the most preferred media type of the Accept header includes.
+     *
+     * @param accept the Accept header of the request, null if there is none
+     * @return the format, or null if the client accepts none of them (or the Accept header is invalid)
+     */
+    public MediaType selectMediaType(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> acceptedMediaTypes;
+        try {
+            acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+        for (MediaType acceptedMediaType : acceptedMediaTypes) {
+            for (MediaType mediaType : writers.keySet()) {
+                if (acceptedMediaType.includes(mediaType) && acceptedMediaType.getQualityValue() > 0) {
+                    return mediaType;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ObjectWriter listWriter(ObjectMapper objectMapper) {
+        return objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UsersGetDTO.class));
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(body);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return gzipped.toByteArray();
+    }
+}
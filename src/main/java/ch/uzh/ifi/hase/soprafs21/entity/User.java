@@ -1,6 +1,10 @@
 package ch.uzh.ifi.hase.soprafs21.entity;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -14,13 +18,30 @@ import java.util.Date;
  * - unique = true -> this value must be unqiue across the database -> composes the primary key
  */
 @Entity
-@Table(name = "USER")
+// USER is a keyword in H2 2.x, the name has to be quoted
+@Table(name = "`USER`", uniqueConstraints = {
+        @UniqueConstraint(name = User.USERNAME_CONSTRAINT, columnNames = "username"),
+        @UniqueConstraint(name = User.NAME_CONSTRAINT, columnNames = "name")})
+// read and written through the second-level cache, see SecondLevelCacheConfiguration
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
 public class User implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public static final String CACHE_REGION = "users";
+
+    public static final String NATURAL_ID_CACHE_REGION = "users-by-username";
+
+    // names of the unique constraints, such that a violation can be traced back to the column
+    public static final String USERNAME_CONSTRAINT = "UK_USER_USERNAME";
+
+    public static final String NAME_CONSTRAINT = "UK_USER_NAME";
+
+    // the ids are reserved in blocks of 50, so that inserting many users does not need one sequence call per user
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -29,7 +50,9 @@ public class User implements Serializable {
     @Column(nullable = false)
     private String name;
 
-    @Column(nullable = false, unique = true)
+    // the username can be edited, so the natural id is mutable
+    @NaturalId(mutable = true)
+    @Column(nullable = false)
     private String username;
 
     @Column(nullable = false, unique = true)
@@ -44,6 +67,10 @@ public class User implements Serializable {
     @Column
     private Date creationDate;
 
+    // increased on every change of the row, part of the ETag of GET /users/{userId}
+    @Version
+    private Long version;
+
     public String getBirthDay() {
         return birthDay;
     }
@@ -99,6 +126,14 @@ public class User implements Serializable {
         this.token = token;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public UserStatus getStatus() {
         return status;
     }
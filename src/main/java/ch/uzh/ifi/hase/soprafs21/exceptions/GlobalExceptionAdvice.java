@@ -1,10 +1,14 @@
 package ch.uzh.ifi.hase.soprafs21.exceptions;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -17,19 +21,44 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 import javax.servlet.http.HttpServletRequest;
 
 @ControllerAdvice(annotations = RestController.class)
+@Profile("!reactive")
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
+    public static final String METRIC_NAME = "users.errors";
+
     private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
+    private final MeterRegistry meterRegistry;
+
+    public GlobalExceptionAdvice(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // the ResponseStatusExceptions of the services are only counted here, rethrowing the very same exception
+    // lets the ResponseStatusExceptionResolver turn it into the usual error response
+    @ExceptionHandler(ResponseStatusException.class)
+    public void handleResponseStatusException(ResponseStatusException ex) {
+        countError(ex.getStatus(), ex);
+        throw ex;
+    }
+
     @ExceptionHandler(value = {IllegalArgumentException.class, IllegalStateException.class})
     protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
         String bodyOfResponse = "This should be application specific";
         return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
     }
 
+    // two edits of the same user at once: the one that is written second still had the old version (@Version)
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    protected ResponseEntity<Object> handleOptimisticLockingFailure(OptimisticLockingFailureException ex, WebRequest request) {
+        String bodyOfResponse = "The user was changed in the meantime, reload it and try again.";
+        return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
+    }
+
     @ExceptionHandler(TransactionSystemException.class)
     public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
         log.error("Request: {} raised {}", request.getRequestURL(), ex);
+        countError(HttpStatus.CONFLICT, ex);
         return new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex);
     }
 
@@ -37,6 +66,20 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     @ExceptionHandler(HttpServerErrorException.InternalServerError.class)
     public ResponseStatusException handleException(Exception ex) {
         log.error("Default Exception Handler -> caught:", ex);
+        countError(HttpStatus.INTERNAL_SERVER_ERROR, ex);
         return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, ex.getMessage(), ex);
     }
+
+    // every handler of ResponseEntityExceptionHandler (and handleConflict) ends up here
+    @Override
+    protected ResponseEntity<Object> handleExceptionInternal(Exception ex, @Nullable Object body, HttpHeaders headers,
+                                                             HttpStatus status, WebRequest request) {
+        countError(status, ex);
+        return super.handleExceptionInternal(ex, body, headers, status, request);
+    }
+
+    private void countError(HttpStatus status, Exception ex) {
+        meterRegistry.counter(METRIC_NAME, "status", String.valueOf(status.value()), "exception", ex.getClass().getSimpleName())
+                .increment();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+
+/**
+ * The lookups of the UserRepository that are answered by the second-level cache of Hibernate.
+ * A derived query (e.g., findByUsername) always reaches the database, these lookups only do on a cache miss.
+ */
+public interface CachedUserRepository {
+
+    /**
+     * @return the user with the given id or null, from the entity cache if it is cached
+     */
+    User findById(long id);
+
+    /**
+     * @return the user with the given username or null, resolved through the natural id cache if it is cached
+     */
+    User findByUsername(String username);
+}
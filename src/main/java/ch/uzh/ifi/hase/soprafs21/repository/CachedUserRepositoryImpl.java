@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+// like the methods of SimpleJpaRepository, without a transaction the unwrapped session would already be closed
+@Transactional(readOnly = true)
+class CachedUserRepositoryImpl implements CachedUserRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public User findById(long id) {
+        return entityManager.find(User.class, id);
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).load(username);
+    }
+}
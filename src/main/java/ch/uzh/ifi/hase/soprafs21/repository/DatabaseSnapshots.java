@@ -0,0 +1,147 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import org.h2.engine.SessionLocal;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.tools.Restore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Database Snapshots
+ * Durable profile only: every users.durable.snapshot-interval-ms the H2 database file is compacted (the pages that
+ * are no longer used are dropped and the file is truncated) and copied with BACKUP TO into
+ * {users.durable.directory}/snapshots/{database}-{timestamp}.zip, the newest users.durable.snapshots-kept are kept.
+ * A snapshot is what a restart falls back to if the database file is gone, see restoreLatestSnapshotIfMissing.
+ * As long as the file is there, opening it is the fast path: H2 (MVStore) writes the file as a log of chunks and only
+ * reads the newest one on startup, there are no rows to redo.
+ */
+@Component
+@Profile("durable")
+public class DatabaseSnapshots {
+
+    static final String SNAPSHOTS_DIRECTORY = "snapshots";
+
+    private static final String SUFFIX = ".zip";
+
+    // sorts like the time, the newest snapshot is the last file name
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS");
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseSnapshots.class);
+
+    private final DataSource dataSource;
+
+    private final Path directory;
+
+    private final String database;
+
+    private final int snapshotsKept;
+
+    private final int compactTimeMs;
+
+    public DatabaseSnapshots(DataSource dataSource,
+                             @Value("${users.durable.directory:./data}") String directory,
+                             @Value("${users.durable.database:users}") String database,
+                             @Value("${users.durable.snapshots-kept:3}") int snapshotsKept,
+                             @Value("${users.durable.compact-time-ms:10000}") int compactTimeMs) {
+        this.dataSource = dataSource;
+        this.directory = Paths.get(directory);
+        this.database = database;
+        this.snapshotsKept = snapshotsKept;
+        this.compactTimeMs = compactTimeMs;
+    }
+
+    /**
+     * Compacts the database file and writes a snapshot of it, while the users are read and written as usual.
+     *
+     * @return the snapshot
+     */
+    @Scheduled(fixedDelayString = "${users.durable.snapshot-interval-ms:600000}",
+            initialDelayString = "${users.durable.snapshot-interval-ms:600000}")
+    public Path takeSnapshot() throws SQLException {
+        long start = System.currentTimeMillis();
+        Path snapshotsDirectory = directory.resolve(SNAPSHOTS_DIRECTORY);
+        String name = database + "-" + TIMESTAMP.format(ZonedDateTime.now(ZoneOffset.UTC));
+        Path snapshot = snapshotsDirectory.resolve(name + SUFFIX);
+        // written under another name first, such that a restore never picks a half written snapshot
+        Path partialSnapshot = snapshotsDirectory.resolve(name + ".partial");
+        try {
+            Files.createDirectories(snapshotsDirectory);
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                // a file that was written to a lot is mostly pages of old versions, BACKUP TO would copy them all
+                ((SessionLocal) connection.unwrap(JdbcConnection.class).getSession()).getDatabase().getStore()
+                        .compactFile(compactTimeMs);
+                statement.execute("BACKUP TO '" + partialSnapshot.toAbsolutePath().toString().replace("'", "''") + "'");
+            }
+            Files.move(partialSnapshot, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            List<Path> snapshots = snapshots(directory, database);
+            for (Path outdatedSnapshot : snapshots.subList(0, Math.max(0, snapshots.size() - snapshotsKept))) {
+                Files.delete(outdatedSnapshot);
+            }
+            log.info("Wrote the snapshot {} ({} bytes) in {} ms", snapshot, Files.size(snapshot), System.currentTimeMillis() - start);
+            return snapshot;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restores the newest snapshot if the database file does not exist (yet), e.g. after the disk it was on was lost.
+     * Must be called before the database is opened, the commits after the snapshot are not restored.
+     *
+     * @return the snapshot that was restored, or null if the database file exists or there is no snapshot
+     */
+    public static Path restoreLatestSnapshotIfMissing(Path directory, String database) {
+        if (Files.exists(directory.resolve(database + ".mv.db"))) {
+            return null;
+        }
+        List<Path> snapshots = snapshots(directory, database);
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+        Path snapshot = snapshots.get(snapshots.size() - 1);
+        Restore.execute(snapshot.toString(), directory.toString(), database);
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshots of the database, the oldest first
+     */
+    static List<Path> snapshots(Path directory, String database) {
+        Path snapshotsDirectory = directory.resolve(SNAPSHOTS_DIRECTORY);
+        if (!Files.isDirectory(snapshotsDirectory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(snapshotsDirectory)) {
+            return files.filter(file -> {
+                String fileName = file.getFileName().toString();
+                return fileName.startsWith(database + "-") && fileName.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
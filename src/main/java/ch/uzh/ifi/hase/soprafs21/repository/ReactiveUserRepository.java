@@ -0,0 +1,146 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import io.r2dbc.spi.Row;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Reactive User Repository
+ * The queries of the reactive profile, run with R2DBC against the same USER table the JPA entity defines
+ * (the schema is still created by Hibernate). The rows are mapped to the User entity class, which is only used
+ * as a plain object here.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveUserRepository {
+
+    // quoted and lower case, like Hibernate creates it (see User)
+    private static final String TABLE = "\"user\"";
+
+    private static final String COLUMNS = "id, name, username, password, token, status, birth_day, creation_date, version";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveUserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Mono<User> findByToken(String token) {
+        return databaseClient.sql("select " + COLUMNS + " from " + TABLE + " where token = :token")
+                .bind("token", token)
+                .map(ReactiveUserRepository::toUser)
+                .one();
+    }
+
+    public Mono<User> findById(long id) {
+        return databaseClient.sql("select " + COLUMNS + " from " + TABLE + " where id = :id")
+                .bind("id", id)
+                .map(ReactiveUserRepository::toUser)
+                .one();
+    }
+
+    public Mono<User> findByUsername(String username) {
+        return databaseClient.sql("select " + COLUMNS + " from " + TABLE + " where username = :username")
+                .bind("username", username)
+                .map(ReactiveUserRepository::toUser)
+                .one();
+    }
+
+    public Mono<Boolean> existsByName(String name) {
+        return databaseClient.sql("select count(*) from " + TABLE + " where name = :name")
+                .bind("name", name)
+                .map(row -> row.get(0, Long.class) > 0)
+                .one();
+    }
+
+    public Mono<Boolean> existsByUsername(String username) {
+        return databaseClient.sql("select count(*) from " + TABLE + " where username = :username")
+                .bind("username", username)
+                .map(row -> row.get(0, Long.class) > 0)
+                .one();
+    }
+
+    /**
+     * Keyset pagination, see UserRepository.findUsersGetDTOsByIdGreaterThan.
+     */
+    public Flux<User> findByIdGreaterThan(long id, int limit) {
+        return databaseClient.sql("select " + COLUMNS + " from " + TABLE + " where id > :id order by id limit :limit")
+                .bind("id", id)
+                .bind("limit", limit)
+                .map(ReactiveUserRepository::toUser)
+                .all();
+    }
+
+    public Flux<User> findAll() {
+        return databaseClient.sql("select " + COLUMNS + " from " + TABLE + " order by id")
+                .map(ReactiveUserRepository::toUser)
+                .all();
+    }
+
+    /**
+     * Inserts the user and sets its id. The id is taken from the sequence of the JPA entity; since Hibernate reserves
+     * blocks of 50 ids per sequence value, every value taken here skips a block but never collides with one.
+     */
+    public Mono<User> insert(User user) {
+        return databaseClient.sql("select next value for user_seq")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .flatMap(id -> {
+                    DatabaseClient.GenericExecuteSpec insert = databaseClient.sql("insert into " + TABLE + " (" + COLUMNS + ") " +
+                            "values (:id, :name, :username, :password, :token, :status, :birthDay, :creationDate, 0)")
+                            .bind("id", id)
+                            .bind("name", user.getName())
+                            .bind("username", user.getUsername())
+                            .bind("password", user.getPassword())
+                            .bind("token", user.getToken())
+                            .bind("status", user.getStatus().ordinal())
+                            .bind("creationDate", LocalDateTime.ofInstant(user.getCreationDate().toInstant(), ZoneId.systemDefault()));
+                    insert = user.getBirthDay() != null ? insert.bind("birthDay", user.getBirthDay()) : insert.bindNull("birthDay", String.class);
+                    return insert.then().thenReturn(id);
+                })
+                .map(id -> {
+                    user.setId(id);
+                    user.setVersion(0L);
+                    return user;
+                });
+    }
+
+    /**
+     * Writes the name, username and birthday of the user and increases its version.
+     *
+     * @return the number of updated rows
+     */
+    public Mono<Integer> update(User user) {
+        DatabaseClient.GenericExecuteSpec update = databaseClient.sql("update " + TABLE + " set name = :name, username = :username, " +
+                "birth_day = :birthDay, version = version + 1 where id = :id")
+                .bind("id", user.getId())
+                .bind("name", user.getName())
+                .bind("username", user.getUsername());
+        update = user.getBirthDay() != null ? update.bind("birthDay", user.getBirthDay()) : update.bindNull("birthDay", String.class);
+        return update.fetch().rowsUpdated();
+    }
+
+    private static User toUser(Row row) {
+        User user = new User();
+        user.setId(row.get("id", Long.class));
+        user.setName(row.get("name", String.class));
+        user.setUsername(row.get("username", String.class));
+        user.setPassword(row.get("password", String.class));
+        user.setToken(row.get("token", String.class));
+        user.setStatus(UserStatus.values()[row.get("status", Integer.class)]);
+        user.setBirthDay(row.get("birth_day", String.class));
+        LocalDateTime creationDate = row.get("creation_date", LocalDateTime.class);
+        user.setCreationDate(creationDate == null ? null : Date.from(creationDate.atZone(ZoneId.systemDefault()).toInstant()));
+        user.setVersion(row.get("version", Long.class));
+        return user;
+    }
+}
@@ -0,0 +1,169 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replica Routing DataSource
+ * Sends the statements of read-only transactions (@Transactional(readOnly = true)) to one of the replicas and
+ * everything else to the primary. A read-only transaction goes to the primary anyway if it called requirePrimary(),
+ * e.g. because it has to see what its client just wrote, or if no replica is fresh enough.
+ * Every replica is asked for its lag (users.datasource.replica-lag-query, in ms) every check interval, on a thread of
+ * its own; only the replicas that answered with at most the maximum lag are used, a replica that cannot be reached
+ * or does not know its lag is left out until it answers again.
+ * The connection is only taken from a pool when the first statement is executed (LazyConnectionDataSourceProxy):
+ * Spring marks the transaction as read-only only after it was begun.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<Boolean> primaryRequired = new ThreadLocal<>();
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final HikariDataSource primary;
+
+    // pool name -> pool
+    private final Map<String, HikariDataSource> replicas = new LinkedHashMap<>();
+
+    private final long maxLagMs;
+
+    private final String lagQuery;
+
+    private final ScheduledExecutorService lagChecker;
+
+    // names of the replicas that are fresh enough, replaced as a whole by every check
+    private volatile String[] usableReplicas = new String[0];
+
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, long maxLagMs,
+                                    String lagQuery, long checkIntervalMs) {
+        this.primary = primary;
+        this.maxLagMs = maxLagMs;
+        this.lagQuery = lagQuery;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (HikariDataSource replica : replicas) {
+            this.replicas.put(replica.getPoolName(), replica);
+            targets.put(replica.getPoolName(), replica);
+        }
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return lookupKey();
+            }
+        };
+        router.setTargetDataSources(targets);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+
+        // the replicas are not used until their first check
+        this.lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes the rest of the current transaction use the primary, even if it is read-only. Has to be called before
+     * its first statement, the connection is not changed within a transaction.
+     */
+    public static void requirePrimary() {
+        if (TransactionSynchronizationManager.isSynchronizationActive() && primaryRequired.get() == null) {
+            primaryRequired.set(Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    primaryRequired.remove();
+                }
+            });
+        }
+    }
+
+    /**
+     * Asks every replica for its lag and uses the ones that are at most users.datasource.max-replica-lag-ms behind.
+     */
+    public void checkReplicas() {
+        List<String> usable = new ArrayList<>(replicas.size());
+        for (Map.Entry<String, HikariDataSource> replica : replicas.entrySet()) {
+            long lagMs;
+            try (Connection connection = replica.getValue().getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet lag = statement.executeQuery(lagQuery)) {
+                // no row or NULL: the lag is unknown, which is as bad as too much of it
+                lagMs = Long.MAX_VALUE;
+                if (lag.next()) {
+                    long value = lag.getLong(1);
+                    if (!lag.wasNull()) {
+                        lagMs = value;
+                    }
+                }
+            }
+            catch (SQLException e) {
+                lagMs = Long.MAX_VALUE;
+                log.debug("Could not check the lag of {}", replica.getKey(), e);
+            }
+            boolean wasUsable = Arrays.asList(usableReplicas).contains(replica.getKey());
+            if (lagMs <= maxLagMs) {
+                usable.add(replica.getKey());
+                if (!wasUsable) {
+                    log.info("Reading from {} again, it is {} ms behind", replica.getKey(), lagMs);
+                }
+            }
+            else if (wasUsable) {
+                log.warn("Not reading from {} anymore, it is {} behind", replica.getKey(),
+                        lagMs == Long.MAX_VALUE ? "unreachable or an unknown time" : lagMs + " ms");
+            }
+        }
+        usableReplicas = usable.toArray(new String[0]);
+    }
+
+    /**
+     * @return the names of the replicas that are currently read from
+     */
+    public List<String> getUsableReplicas() {
+        return Collections.unmodifiableList(Arrays.asList(usableReplicas));
+    }
+
+    public Collection<HikariDataSource> getReplicaPools() {
+        return Collections.unmodifiableCollection(replicas.values());
+    }
+
+    @Override
+    public void close() {
+        lagChecker.shutdownNow();
+        replicas.values().forEach(HikariDataSource::close);
+        primary.close();
+    }
+
+    private Object lookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || primaryRequired.get() != null) {
+            return PRIMARY;
+        }
+        String[] replicas = usableReplicas;
+        if (replicas.length == 0) {
+            return PRIMARY;
+        }
+        return replicas[ThreadLocalRandom.current().nextInt(replicas.length)];
+    }
+}
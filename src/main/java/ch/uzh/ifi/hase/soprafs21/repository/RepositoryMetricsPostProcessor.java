@@ -0,0 +1,74 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.stereotype.Component;
+
+/**
+ * Repository Metrics
+ * Times every invocation of a repository method (e.g., UserRepository.findByToken) as users.repository.invocations,
+ * tagged with the repository, the method and whether the query succeeded.
+ * The interceptor is added to the proxy of each repository when its factory bean is initialized.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    public static final String METRIC_NAME = "users.repository.invocations";
+
+    // looked up lazily: a BeanPostProcessor is created before the registry is
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    // kept once found, the registry cannot be looked up anymore while the context is closing
+    // (e.g., when the PresenceRegistry writes the last statuses)
+    private volatile MeterRegistry registry;
+
+    public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof RepositoryFactoryBeanSupport) {
+            ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory ->
+                    factory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                            proxyFactory.addAdvice(timingInterceptor(repositoryInformation.getRepositoryInterface().getSimpleName()))));
+        }
+        return bean;
+    }
+
+    private MethodInterceptor timingInterceptor(String repository) {
+        return invocation -> {
+            MeterRegistry registry = registry();
+            if (registry == null) {
+                return invocation.proceed();
+            }
+            Timer.Sample sample = Timer.start(registry);
+            String outcome = "SUCCESS";
+            try {
+                return invocation.proceed();
+            }
+            catch (Throwable t) {
+                outcome = "ERROR";
+                throw t;
+            }
+            finally {
+                sample.stop(Timer.builder(METRIC_NAME)
+                        .tag("repository", repository)
+                        .tag("method", invocation.getMethod().getName())
+                        .tag("outcome", outcome)
+                        .register(registry));
+            }
+        };
+    }
+
+    private MeterRegistry registry() {
+        if (registry == null) {
+            registry = meterRegistry.getIfAvailable();
+        }
+        return registry;
+    }
+}
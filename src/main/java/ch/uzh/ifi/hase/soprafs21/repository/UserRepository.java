@@ -1,16 +1,113 @@
 package ch.uzh.ifi.hase.soprafs21.repository;
 
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
 
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
-    User findByName(String name);
+public interface UserRepository extends JpaRepository<User, Long>, CachedUserRepository {
+    // number of rows the JDBC driver fetches per round trip while streaming
+    String EXPORT_FETCH_SIZE = "500";
 
-    User findByUsername(String username);
+    User findByName(String name);
 
-    User findById(long id);
+    // findById and findByUsername go through the second-level cache, see CachedUserRepository
 
+    // the result (the id) is kept in the query cache until the next change to the USER table
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     User findByToken(String token);
+
+    /**
+     * Sets the status of all given users with a single UPDATE statement.
+     *
+     * @return the number of updated users
+     */
+    default int updateStatus(UserStatus status, Collection<Long> ids) {
+        return updateStatusOrdinal(status.ordinal(), ids);
+    }
+
+    // Native, such that Hibernate does not evict every cached user on each flush of the PresenceRegistry: the
+    // statement is only synchronized with the "presence" space, which no entity or cached query uses. The status
+    // read from a cache can therefore be stale, but it is always overwritten with the one of the PresenceRegistry.
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "presence"))
+    @Query(value = "update \"user\" set status = :status where id in :ids", nativeQuery = true)
+    int updateStatusOrdinal(@Param("status") int status, @Param("ids") Collection<Long> ids);
+
+    /**
+     * Gives every given user a new random token (RANDOM_UUID of H2), used when their sessions expired.
+     * Unlike updateStatus, the cached users and query results are evicted, they could still hold the old tokens.
+     *
+     * @return the number of updated users
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "update \"user\" set token = cast(random_uuid() as varchar) where id in :ids", nativeQuery = true)
+    int replaceTokens(@Param("ids") Collection<Long> ids);
+
+    @Query("select u.id from User u where u.status = :status")
+    List<Long> findIdsByStatus(@Param("status") UserStatus status);
+
+    // [username, name] of every user
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+    @Query("select u.username, u.name from User u")
+    Stream<Object[]> streamUsernamesAndNames();
+
+    @Query("select u.username from User u where u.username in :usernames")
+    Set<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    @Query("select u.name from User u where u.name in :names")
+    Set<String> findExistingNames(@Param("names") Collection<String> names);
+
+    // Projections: the reads of the API select the columns of the DTOs directly, no User entity is loaded
+    // (the password is never read) and nothing ends up in the persistence context to be dirty-checked.
+
+    String USERS_GET_DTO = "new ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO(u.id, u.name, u.username, u.creationDate, u.status, u.birthDay)";
+
+    String USER_GET_DTO = "new ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO(u.id, u.name, u.username, u.creationDate, u.status, u.birthDay, u.token, u.version)";
+
+    /**
+     * Keyset pagination: returns the users with an id strictly greater than the given cursor.
+     * The pageable only carries the page size and the ordering, the offset is always 0 so every
+     * page costs the same regardless of how far into the table the cursor points.
+     */
+    @Query("select " + USERS_GET_DTO + " from User u where u.id > :id")
+    Slice<UsersGetDTO> findUsersGetDTOsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    /**
+     * Streams all users ordered by id. The stream is backed by an open JDBC result set, so it has to be
+     * consumed inside a transaction and closed afterwards (try-with-resources).
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+    @Query("select " + USERS_GET_DTO + " from User u order by u.id")
+    Stream<UsersGetDTO> streamAllUsersGetDTOs();
+
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    @Query("select " + USER_GET_DTO + " from User u where u.id = :id")
+    UserGetDTO findUserGetDTOById(@Param("id") long id);
+
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    @Query("select " + USER_GET_DTO + " from User u where u.token = :token")
+    UserGetDTO findUserGetDTOByToken(@Param("token") String token);
 }
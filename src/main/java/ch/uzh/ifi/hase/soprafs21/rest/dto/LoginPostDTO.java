@@ -2,11 +2,20 @@ package ch.uzh.ifi.hase.soprafs21.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 
-// creating the JSON Input rules (aka username, password)
+// creating the JSON Input rules (aka username, password, token for the logout)
 public class LoginPostDTO {
 
     private String username;
     private String password;
+    private String token;
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
 
     public String getUsername() {
         return username;
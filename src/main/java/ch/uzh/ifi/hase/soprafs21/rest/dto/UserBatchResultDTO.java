@@ -0,0 +1,42 @@
+package ch.uzh.ifi.hase.soprafs21.rest.dto;
+
+// result of one user of a batch creation, user is only set if the user was created
+public class UserBatchResultDTO {
+
+    private int index;
+    private int status;
+    private String message;
+    private UserGetDTO user;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public UserGetDTO getUser() {
+        return user;
+    }
+
+    public void setUser(UserGetDTO user) {
+        this.user = user;
+    }
+}
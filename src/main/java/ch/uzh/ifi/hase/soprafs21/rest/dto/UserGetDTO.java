@@ -1,6 +1,7 @@
 package ch.uzh.ifi.hase.soprafs21.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.util.Date;
 
@@ -14,6 +15,28 @@ public class UserGetDTO {
     private String birthDay;
     private String token;
 
+    // only used for the ETag, not part of the JSON
+    @JsonIgnore
+    private Long version;
+
+    public UserGetDTO() {
+    }
+
+    /**
+     * Used by the projection queries of the UserRepository (select new ...).
+     */
+    public UserGetDTO(Long id, String name, String username, Date creationDate, UserStatus status, String birthDay,
+                      String token, Long version) {
+        this.id = id;
+        this.name = name;
+        this.username = username;
+        this.creationDate = creationDate;
+        this.status = status;
+        this.birthDay = birthDay;
+        this.token = token;
+        this.version = version;
+    }
+
     public Date getCreationDate() {
         return creationDate;
     }
@@ -69,4 +92,12 @@ public class UserGetDTO {
     public void setStatus(UserStatus status) {
         this.status = status;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -2,6 +2,7 @@ package ch.uzh.ifi.hase.soprafs21.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 
+import java.text.SimpleDateFormat;
 import java.util.Date;
 
 public class UsersGetDTO {
@@ -13,6 +14,22 @@ public class UsersGetDTO {
     private UserStatus status;
     private String birthDay;
 
+    public UsersGetDTO() {
+    }
+
+    /**
+     * Used by the projection queries of the UserRepository (select new ...), the creation date is formatted
+     * the same way as by the DTOMapper.
+     */
+    public UsersGetDTO(Long id, String name, String username, Date creationDate, UserStatus status, String birthDay) {
+        this.id = id;
+        this.name = name;
+        this.username = username;
+        this.creationDate = creationDate == null ? null : new SimpleDateFormat().format(creationDate);
+        this.status = status;
+        this.birthDay = birthDay;
+    }
+
     public String getCreationDate() {
         return creationDate;
     }
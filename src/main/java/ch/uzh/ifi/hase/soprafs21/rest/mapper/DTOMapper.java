@@ -27,6 +27,7 @@ public interface DTOMapper {
 
     @Mapping(source = "username", target = "username")
     @Mapping(source = "password", target = "password")
+    @Mapping(source = "token", target = "token")
     User convertLoginPostDTOtoEntity(LoginPostDTO loginPostDTO);
 
     @Mapping(source = "id", target = "id")
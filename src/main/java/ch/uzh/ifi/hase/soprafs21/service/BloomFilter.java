@@ -0,0 +1,73 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom Filter
+ * Probabilistic set of strings: mightContain() never returns false for a string that was added,
+ * but may return true for a string that was never added (with the configured false positive probability).
+ * Values cannot be removed. The filter is thread-safe and lock-free.
+ */
+class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long numberOfBits;
+
+    private final int numberOfHashFunctions;
+
+    BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (optimalBits + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.numberOfBits = words * 64L;
+        this.numberOfHashFunctions = (int) Math.max(1, Math.round((double) numberOfBits / Math.max(1, expectedInsertions) * Math.log(2)));
+    }
+
+    void put(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, numberOfBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+            }
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    boolean mightContain(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, numberOfBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64 bit FNV-1a over the UTF-8 bytes, followed by a finalizer such that all bits are well distributed
+    private static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
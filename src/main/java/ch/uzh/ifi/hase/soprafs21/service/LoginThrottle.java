@@ -0,0 +1,135 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Login Throttle
+ * Limits the login attempts per username and per client address with token buckets, before the login reaches the
+ * UserService (and the database). A bucket holds up to "burst" attempts and gets "per-minute" attempts back per
+ * minute; every attempt, successful or not, takes one from the bucket of its username and the one of its address.
+ * The buckets are striped: a username (or address) is hashed to one of a fixed number of buckets, so the memory used
+ * does not grow with the number of usernames an attacker tries. Two usernames may share a bucket; the hash is seeded
+ * randomly on startup, so which ones cannot be chosen from the outside.
+ * A bucket is a single long (the time it is full again, see tryAcquire), updated with compare-and-set, so the
+ * attempts never wait for a lock.
+ */
+@Component
+public class LoginThrottle {
+
+    private final boolean enabled;
+
+    private final Buckets usernames;
+
+    private final Buckets addresses;
+
+    private final Counter throttledLogins;
+
+    public LoginThrottle(@Value("${users.login-throttle.enabled:true}") boolean enabled,
+                         @Value("${users.login-throttle.stripes:65536}") int stripes,
+                         @Value("${users.login-throttle.per-username.burst:5}") int usernameBurst,
+                         @Value("${users.login-throttle.per-username.per-minute:12}") int usernamePerMinute,
+                         @Value("${users.login-throttle.per-address.burst:20}") int addressBurst,
+                         @Value("${users.login-throttle.per-address.per-minute:120}") int addressPerMinute,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.usernames = new Buckets(stripes, usernameBurst, usernamePerMinute);
+        this.addresses = new Buckets(stripes, addressBurst, addressPerMinute);
+        // next to the users.logins of the UserService with the outcomes success and failure
+        this.throttledLogins = meterRegistry.counter("users.logins", "outcome", "throttled");
+    }
+
+    /**
+     * Takes one attempt from the buckets of the username and the client address.
+     *
+     * @return null if the login may go ahead, otherwise the 429 error to respond with
+     */
+    public ResponseStatusException check(String username, String clientAddress) {
+        if (!enabled) {
+            return null;
+        }
+        // the address first: attempts that are rejected for their address do not use up the bucket of the username
+        long waitNanos = addresses.tryAcquire(clientAddress);
+        if (waitNanos == 0) {
+            waitNanos = usernames.tryAcquire(username);
+        }
+        if (waitNanos == 0) {
+            return null;
+        }
+        throttledLogins.increment();
+        return new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, String.format(
+                "Too many login attempts, try again in %d seconds.", Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos))));
+    }
+
+    /**
+     * A fixed number of token buckets. Instead of the number of tokens, a bucket stores the time at which it is full
+     * again (the "theoretical arrival time" of the generic cell rate algorithm): every attempt moves that time one
+     * interval further into the future, and an attempt is rejected if that would be more than burst intervals from
+     * now. A bucket that was never used (0) or that is full again (in the past) allows burst attempts right away.
+     */
+    static final class Buckets {
+
+        private final AtomicLongArray fullAt;
+
+        private final int mask;
+
+        private final long intervalNanos;
+
+        private final long toleranceNanos;
+
+        private final long seed = new SecureRandom().nextLong();
+
+        // System.nanoTime() might be negative, the times are stored relative to the start
+        private final long origin = System.nanoTime();
+
+        Buckets(int stripes, int burst, int perMinute) {
+            if (stripes < 1 || burst < 1 || perMinute < 1) {
+                throw new IllegalArgumentException("The stripes, burst and per-minute of the login throttle have to be positive.");
+            }
+            int size = Integer.highestOneBit(stripes - 1) << 1;
+            this.fullAt = new AtomicLongArray(Math.max(1, size));
+            this.mask = fullAt.length() - 1;
+            this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / perMinute;
+            this.toleranceNanos = intervalNanos * burst;
+        }
+
+        /**
+         * @return 0 if the attempt was taken from the bucket of the key, otherwise the nanoseconds until it could be
+         */
+        long tryAcquire(String key) {
+            int stripe = stripe(key);
+            long now = System.nanoTime() - origin;
+            while (true) {
+                long current = fullAt.get(stripe);
+                long next = Math.max(current, now) + intervalNanos;
+                long wait = next - now - toleranceNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (fullAt.compareAndSet(stripe, current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        // FNV-1a with a random offset basis, String.hashCode() collides predictably ("Aa" and "BB")
+        int stripe(String key) {
+            long hash = seed;
+            if (key != null) {
+                for (int i = 0; i < key.length(); i++) {
+                    hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+                }
+            }
+            hash ^= hash >>> 32;
+            return (int) hash & mask;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Presence Registry
+ * This class is the source of truth for the online status (ONLINE/OFFLINE) of the users.
+ * A login or logout only changes the status in memory, the changed statuses are written to the USER table
+ * periodically in batches (one UPDATE per status) by flush().
+ * Users whose status never changed since the start of the server keep the status stored in the database.
+ */
+@Component
+public class PresenceRegistry {
+
+    // maximum number of ids in one "in (...)" list of the batch update
+    static final int FLUSH_BATCH_SIZE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private final UserRepository userRepository;
+
+    private final ConcurrentMap<Long, UserStatus> statuses = new ConcurrentHashMap<>();
+
+    // statuses that changed since the last flush
+    private final ConcurrentMap<Long, UserStatus> pendingStatuses = new ConcurrentHashMap<>();
+
+    public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * @return true if the user was not ONLINE before
+     */
+    public boolean markOnline(long userId) {
+        return changeStatus(userId, UserStatus.ONLINE);
+    }
+
+    /**
+     * @return true if the user was not OFFLINE before
+     */
+    public boolean markOffline(long userId) {
+        return changeStatus(userId, UserStatus.OFFLINE);
+    }
+
+    /**
+     * @param userId id of the user
+     * @param persistedStatus the status stored in the database, used if the status never changed in memory
+     * @return the current status of the user
+     */
+    public UserStatus statusOf(Long userId, UserStatus persistedStatus) {
+        UserStatus status = userId == null ? null : statuses.get(userId);
+        return status != null ? status : persistedStatus;
+    }
+
+    /**
+     * Overwrites the status of the given user with the current status. This must only be called on users that are
+     * detached or belong to a read-only transaction, otherwise the change is written to the database on commit.
+     */
+    public void applyTo(User user) {
+        user.setStatus(statusOf(user.getId(), user.getStatus()));
+    }
+
+    /**
+     * Writes all statuses that changed since the last flush to the database.
+     */
+    @Scheduled(fixedDelayString = "${users.presence.flush-interval-ms:1000}")
+    @PreDestroy
+    public void flush() {
+        if (pendingStatuses.isEmpty()) {
+            return;
+        }
+        Map<UserStatus, List<Long>> userIdsByStatus = new EnumMap<>(UserStatus.class);
+        for (Map.Entry<Long, UserStatus> entry : pendingStatuses.entrySet()) {
+            // only take the entry if it did not change in the meantime, otherwise the next flush writes it
+            if (pendingStatuses.remove(entry.getKey(), entry.getValue())) {
+                userIdsByStatus.computeIfAbsent(entry.getValue(), status -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        userIdsByStatus.forEach(this::writeStatus);
+    }
+
+    // the pending status is set within the compute of the status, so for a login racing a logout both maps end up
+    // with the status that was set last
+    private boolean changeStatus(long userId, UserStatus status) {
+        boolean[] changed = new boolean[1];
+        statuses.compute(userId, (id, previousStatus) -> {
+            if (previousStatus != status) {
+                pendingStatuses.put(id, status);
+                changed[0] = true;
+            }
+            return status;
+        });
+        return changed[0];
+    }
+
+    private void writeStatus(UserStatus status, List<Long> userIds) {
+        for (int from = 0; from < userIds.size(); from += FLUSH_BATCH_SIZE) {
+            List<Long> batch = userIds.subList(from, Math.min(from + FLUSH_BATCH_SIZE, userIds.size()));
+            try {
+                userRepository.updateStatus(status, batch);
+            }
+            catch (RuntimeException e) {
+                // keep the statuses for the next flush unless they changed again in the meantime
+                batch.forEach(userId -> statuses.computeIfPresent(userId, (id, currentStatus) -> {
+                    if (currentStatus == status) {
+                        pendingStatuses.putIfAbsent(id, status);
+                    }
+                    return currentStatus;
+                }));
+                log.error("Could not write the status {} of {} users", status, batch.size(), e);
+                return;
+            }
+        }
+        log.debug("Wrote the status {} of {} users", status, userIds.size());
+    }
+}
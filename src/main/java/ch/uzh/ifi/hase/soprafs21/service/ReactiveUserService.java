@@ -0,0 +1,236 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.ReactiveUserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reactive User Service
+ * The UserService of the reactive profile: the same rules and error messages, but every database access is
+ * a non-blocking R2DBC call, so no thread waits for the database. The token cache, the presence registry,
+ * the existence filter and the events are shared with the servlet stack.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveUserService {
+
+    private final Logger log = LoggerFactory.getLogger(ReactiveUserService.class);
+
+    private final ReactiveUserRepository userRepository;
+
+    private final TokenCache tokenCache;
+
+    private final PresenceRegistry presenceRegistry;
+
+    private final SessionReaper sessionReaper;
+
+    private final UserExistenceFilter userExistenceFilter;
+
+    private final UserSearchIndex userSearchIndex;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Counter successfulLogins;
+
+    private final Counter failedLogins;
+
+    private final Counter logouts;
+
+    private final Counter createdUsers;
+
+    public ReactiveUserService(ReactiveUserRepository userRepository, TokenCache tokenCache, PresenceRegistry presenceRegistry,
+                               SessionReaper sessionReaper, UserExistenceFilter userExistenceFilter, UserSearchIndex userSearchIndex,
+                               ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.tokenCache = tokenCache;
+        this.presenceRegistry = presenceRegistry;
+        this.sessionReaper = sessionReaper;
+        this.userExistenceFilter = userExistenceFilter;
+        this.userSearchIndex = userSearchIndex;
+        this.eventPublisher = eventPublisher;
+        this.successfulLogins = meterRegistry.counter("users.logins", "outcome", "success");
+        this.failedLogins = meterRegistry.counter("users.logins", "outcome", "failure");
+        this.logouts = meterRegistry.counter("users.logouts");
+        this.createdUsers = meterRegistry.counter("users.created");
+    }
+
+    public Mono<UserGetDTO> getUserByToken(String token) {
+        UserGetDTO cachedUser = tokenCache.get(token);
+        Mono<UserGetDTO> user = cachedUser != null ? Mono.just(cachedUser) : userRepository.findByToken(token)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token")))
+                .map(DTOMapper.INSTANCE::convertEntityToUserGetDTO)
+                .doOnNext(tokenCache::put);
+        return user.doOnNext(dto -> {
+            sessionReaper.renew(dto.getId(), token);
+            dto.setStatus(presenceRegistry.statusOf(dto.getId(), dto.getStatus()));
+        });
+    }
+
+    /**
+     * Returns at most limit users with an id greater than the given cursor, ordered by id.
+     * One user more is read to find out whether there is a next page.
+     */
+    public Mono<Slice<User>> getUsers(long after, int limit) {
+        return userRepository.findByIdGreaterThan(after, limit + 1)
+                .doOnNext(presenceRegistry::applyTo)
+                .collectList()
+                .map(users -> {
+                    boolean hasNext = users.size() > limit;
+                    return new SliceImpl<>(hasNext ? users.subList(0, limit) : users, PageRequest.of(0, limit), hasNext);
+                });
+    }
+
+    public Flux<User> exportUsers() {
+        return userRepository.findAll().doOnNext(presenceRegistry::applyTo);
+    }
+
+    // answered from memory, there is nothing to wait for
+    public List<UsersGetDTO> searchUsers(String query, int limit) {
+        List<UsersGetDTO> users = userSearchIndex.search(query, limit);
+        users.forEach(user -> user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus())));
+        return users;
+    }
+
+    public Mono<User> createUser(User newUser) {
+        UserService.initializeNewUser(newUser);
+
+        // nearly every new user is unique, the lookups are only needed if the filter is not sure about it
+        Mono<Boolean> usernameTaken = userExistenceFilter.mightContainUsername(newUser.getUsername()) ?
+                userRepository.existsByUsername(newUser.getUsername()) : Mono.just(false);
+        Mono<Boolean> nameTaken = userExistenceFilter.mightContainName(newUser.getName()) ?
+                userRepository.existsByName(newUser.getName()) : Mono.just(false);
+
+        return Mono.zip(usernameTaken, nameTaken)
+                .flatMap(taken -> {
+                    ResponseStatusException error = UserService.uniquenessError(taken.getT1(), taken.getT2());
+                    return error != null ? Mono.<User>error(error) : userRepository.insert(newUser);
+                })
+                // another user with the same username or name was created in the meantime
+                .onErrorMap(DataIntegrityViolationException.class, ReactiveUserService::toUniquenessError)
+                .doOnNext(createdUser -> {
+                    sessionReaper.start(createdUser.getId(), createdUser.getToken());
+                    userExistenceFilter.add(createdUser);
+                    createdUsers.increment();
+                    eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, createdUser));
+                    log.debug("Created Information for User: {}", createdUser);
+                });
+    }
+
+    /**
+     * Creates the given users one after the other, a user that cannot be created does not stop the others.
+     *
+     * @return the error per index (in newUsers) of the users that could not be created
+     */
+    public Mono<Map<Integer, ResponseStatusException>> createUsers(List<User> newUsers) {
+        if (newUsers.stream().anyMatch(Objects::isNull)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "The users to be created must not be null."));
+        }
+        Map<Integer, ResponseStatusException> errors = new HashMap<>();
+        return Flux.range(0, newUsers.size())
+                .concatMap(i -> {
+                    User newUser = newUsers.get(i);
+                    if (newUser.getUsername() == null || newUser.getName() == null || newUser.getPassword() == null) {
+                        errors.put(i, new ResponseStatusException(HttpStatus.BAD_REQUEST, "The name, username and password have to be provided."));
+                        return Mono.empty();
+                    }
+                    return createUser(newUser).then()
+                            .onErrorResume(ResponseStatusException.class, e -> {
+                                errors.put(i, e);
+                                return Mono.empty();
+                            });
+                })
+                .then(Mono.fromSupplier(() -> errors));
+    }
+
+    public Mono<User> findUserById(long userId) {
+        return userRepository.findById(userId)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, " User does not exist with this ID.")))
+                .doOnNext(presenceRegistry::applyTo);
+    }
+
+    public Mono<User> edit(long id, User userInput) {
+        return findUserById(id)
+                .flatMap(user -> {
+                    user.setUsername(userInput.getUsername());
+                    user.setBirthDay(userInput.getBirthDay());
+                    user.setName(userInput.getName());
+                    user.setVersion(user.getVersion() + 1);
+                    return userRepository.update(user).thenReturn(user);
+                })
+                .doOnNext(user -> {
+                    userExistenceFilter.add(user);
+                    eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.EDITED, user));
+                });
+    }
+
+    public Mono<User> login(User inputUser) {
+        return userRepository.findByUsername(inputUser.getUsername())
+                .filter(user -> user.getPassword().equals(inputUser.getPassword()))
+                .switchIfEmpty(Mono.error(() -> {
+                    failedLogins.increment();
+                    return new ResponseStatusException(HttpStatus.BAD_REQUEST, "wrong user or password combination");
+                }))
+                .doOnNext(user -> {
+                    boolean statusChanged = presenceRegistry.markOnline(user.getId());
+                    presenceRegistry.applyTo(user);
+                    sessionReaper.start(user.getId(), user.getToken());
+                    if (statusChanged) {
+                        eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.STATUS_CHANGED, user));
+                    }
+                    successfulLogins.increment();
+                });
+    }
+
+    public Mono<User> logout(User inputUser) {
+        if (inputUser.getToken() == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "User is not logged in anymore. Maybe your login-token has expired or some other" +
+                    " unforseeable shenanigans have occured such that this exception is thrown"));
+        }
+        return userRepository.findByToken(inputUser.getToken())
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token")))
+                .doOnNext(user -> {
+                    tokenCache.evict(user.getToken());
+                    sessionReaper.end(user.getId());
+                    boolean statusChanged = presenceRegistry.markOffline(user.getId());
+                    presenceRegistry.applyTo(user);
+                    if (statusChanged) {
+                        eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.STATUS_CHANGED, user));
+                    }
+                    logouts.increment();
+                });
+    }
+
+    // the message of the driver contains the name of the violated constraint
+    private static Throwable toUniquenessError(DataIntegrityViolationException e) {
+        String message = e.getMessage() == null ? "" : e.getMessage().toUpperCase();
+        if (message.contains(User.USERNAME_CONSTRAINT)) {
+            return UserService.uniquenessError(true, false);
+        }
+        else if (message.contains(User.NAME_CONSTRAINT)) {
+            return UserService.uniquenessError(false, true);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Roster Version
+ * A counter that changes whenever the user list changes, such that the ETag of a page of users can be computed
+ * without reading the users. The counter is only increased once the change was committed: a request that read
+ * the version before the commit therefore either sees the old users or gets a new ETag on its next request.
+ * The start time of the server is part of the version, since the counter starts at 0 again after a restart.
+ */
+@Component
+public class RosterVersion {
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final AtomicLong counter = new AtomicLong();
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        counter.incrementAndGet();
+    }
+
+    public String current() {
+        return epoch + "-" + counter.get();
+    }
+}
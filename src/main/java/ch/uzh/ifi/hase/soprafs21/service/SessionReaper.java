@@ -0,0 +1,205 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Session Reaper
+ * A login (or registration) starts a session, every use of the token renews it. A session that was not used for
+ * users.sessions.idle-timeout-ms expires: the token of the user is replaced by a new random one, so the old token
+ * is rejected from then on, and the user goes OFFLINE like after a logout. The sessions are kept in a TimerWheel,
+ * starting, renewing and expiring a session costs O(1), there is no periodic scan over all users.
+ * The expired sessions are collected per tick and their tokens are replaced with one UPDATE per 1000 users.
+ * A session remembers every token that was handed out or used during it (signed tokens differ per login), on expiry
+ * they are evicted from the TokenCache and the signed ones are revoked, once the new tokens were written. If that
+ * update fails, the old tokens still work: the users stay ONLINE and their sessions expire again with the next tick.
+ */
+@Component
+public class SessionReaper {
+
+    // maximum number of ids in one "in (...)" list of the token update
+    static final int EXPIRE_BATCH_SIZE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(SessionReaper.class);
+
+    private final UserRepository userRepository;
+
+    private final PresenceRegistry presenceRegistry;
+
+    private final TokenCache tokenCache;
+
+    private final TokenSigner tokenSigner;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final long idleTimeoutMs;
+
+    private final long tickMs;
+
+    private final TimerWheel<Session> timerWheel;
+
+    private final ConcurrentMap<Long, Session> sessions = new ConcurrentHashMap<>();
+
+    private static final class Session extends TimerWheel.Timeout {
+
+        private final long userId;
+
+        private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+
+        private Session(long userId, long deadline) {
+            super(deadline);
+            this.userId = userId;
+        }
+
+        private void addToken(String token) {
+            if (token != null) {
+                tokens.add(token);
+            }
+        }
+    }
+
+    public SessionReaper(@Qualifier("userRepository") UserRepository userRepository, PresenceRegistry presenceRegistry,
+                         TokenCache tokenCache, TokenSigner tokenSigner, ApplicationEventPublisher eventPublisher,
+                         @Value("${users.sessions.idle-timeout-ms:1800000}") long idleTimeoutMs,
+                         @Value("${users.sessions.tick-ms:1000}") long tickMs,
+                         @Value("${users.sessions.wheel-size:512}") int wheelSize) {
+        this.userRepository = userRepository;
+        this.presenceRegistry = presenceRegistry;
+        this.tokenCache = tokenCache;
+        this.tokenSigner = tokenSigner;
+        this.eventPublisher = eventPublisher;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.tickMs = tickMs;
+        this.timerWheel = new TimerWheel<>(tickMs, wheelSize, System.currentTimeMillis());
+    }
+
+    /**
+     * Starts a new session of the user, replacing the previous one. The tokens of the previous session stay valid,
+     * so they are taken over and expire with the new session.
+     *
+     * @param token the token handed out with the session, evicted from the TokenCache (and revoked if it is signed)
+     *              once the session expires
+     */
+    public void start(long userId, String token) {
+        Session session = new Session(userId, System.currentTimeMillis() + idleTimeoutMs);
+        session.addToken(token);
+        Session previousSession = sessions.put(userId, session);
+        if (previousSession != null) {
+            previousSession.cancel();
+            session.tokens.addAll(previousSession.tokens);
+        }
+        timerWheel.schedule(session);
+    }
+
+    /**
+     * Renews the session of the user if there is one.
+     *
+     * @param token the token that was used, it expires with the session
+     */
+    public void renew(long userId, String token) {
+        Session session = sessions.get(userId);
+        if (session != null) {
+            session.addToken(token);
+            session.extendTo(System.currentTimeMillis() + idleTimeoutMs);
+        }
+    }
+
+    public void end(long userId) {
+        Session session = sessions.remove(userId);
+        if (session != null) {
+            session.cancel();
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * The users that were ONLINE when the server stopped get a session as if they had just logged in,
+     * otherwise nothing would ever set them OFFLINE. Their tokens are added once they are used (renew).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startSessionsOfOnlineUsers() {
+        List<Long> userIds = userRepository.findIdsByStatus(UserStatus.ONLINE);
+        userIds.forEach(userId -> start(userId, null));
+        log.debug("Started the sessions of {} online users", userIds.size());
+    }
+
+    @Scheduled(fixedDelayString = "${users.sessions.tick-ms:1000}")
+    public void expireSessions() {
+        expireSessions(System.currentTimeMillis());
+    }
+
+    synchronized void expireSessions(long now) {
+        List<Session> expiredSessions = new ArrayList<>();
+        timerWheel.advance(now, session -> {
+            // a session that was replaced or ended in the meantime is not in the map anymore
+            if (sessions.remove(session.userId, session)) {
+                expiredSessions.add(session);
+            }
+        });
+        if (expiredSessions.isEmpty()) {
+            return;
+        }
+        int expired = 0;
+        for (int from = 0; from < expiredSessions.size(); from += EXPIRE_BATCH_SIZE) {
+            List<Session> batch = expiredSessions.subList(from, Math.min(from + EXPIRE_BATCH_SIZE, expiredSessions.size()));
+            List<Long> userIds = new ArrayList<>(batch.size());
+            batch.forEach(session -> userIds.add(session.userId));
+            try {
+                userRepository.replaceTokens(userIds);
+            }
+            catch (RuntimeException e) {
+                // the old tokens are still valid, so the users stay ONLINE until the update succeeds
+                log.error("Could not replace the tokens of {} expired sessions, retrying with the next tick", batch.size(), e);
+                batch.forEach(session -> retry(session, now));
+                continue;
+            }
+            // only now: evicted before the update, a lookup of an old token in between would cache it again
+            for (Session session : batch) {
+                for (String token : session.tokens) {
+                    tokenCache.evict(token);
+                    if (tokenSigner.isSigned(token)) {
+                        tokenSigner.revoke(token);
+                    }
+                }
+            }
+            for (User user : userRepository.findAllById(userIds)) {
+                if (presenceRegistry.markOffline(user.getId())) {
+                    presenceRegistry.applyTo(user);
+                    eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.STATUS_CHANGED, user));
+                }
+            }
+            expired += batch.size();
+        }
+        log.debug("Expired {} sessions", expired);
+    }
+
+    // expires the session again with the next tick, unless the user started a new one, which then takes its tokens
+    private void retry(Session session, long now) {
+        Session newSession = sessions.putIfAbsent(session.userId, session);
+        if (newSession != null) {
+            newSession.tokens.addAll(session.tokens);
+            return;
+        }
+        session.extendTo(now + tickMs);
+        timerWheel.schedule(session);
+    }
+}
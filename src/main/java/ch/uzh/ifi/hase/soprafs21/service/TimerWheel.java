@@ -0,0 +1,103 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed Timer Wheel
+ * Keeps timeouts in a ring of buckets, one bucket per tick. Scheduling a timeout and extending it cost O(1):
+ * a timeout is put into the bucket of its deadline, and extending it only moves its deadline. When the wheel
+ * reaches a bucket, the timeouts in it that are due expire and the others (extended, or more than one turn of the
+ * wheel away) are put into the bucket of their new deadline. So no timeout is looked at more than once per turn.
+ * Scheduling and extending are thread-safe, advance() must only be called by one thread at a time.
+ */
+class TimerWheel<T extends TimerWheel.Timeout> {
+
+    /**
+     * Something that expires at its deadline unless it was cancelled before.
+     */
+    abstract static class Timeout {
+
+        private volatile long deadline;
+
+        private volatile boolean cancelled;
+
+        protected Timeout(long deadline) {
+            this.deadline = deadline;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Moves the deadline, the timeout stays in its bucket until the wheel gets there.
+         */
+        void extendTo(long deadline) {
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMs;
+
+    private final Queue<T>[] buckets;
+
+    // the next tick whose bucket has not been processed yet
+    private long nextTick;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMs, int size, long now) {
+        this.tickMs = tickMs;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.nextTick = now / tickMs;
+    }
+
+    void schedule(T timeout) {
+        bucketOf(timeout.getDeadline()).add(timeout);
+    }
+
+    /**
+     * Processes the buckets of all ticks up to the given time and hands every due timeout to the consumer.
+     */
+    void advance(long now, Consumer<T> onExpired) {
+        long currentTick = now / tickMs;
+        // after a long pause every bucket is processed once, not once per missed tick
+        long firstTick = Math.max(nextTick, currentTick - buckets.length + 1);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Queue<T> bucket = buckets[(int) (tick % buckets.length)];
+            // only the timeouts that were in the bucket when we got there, a rescheduled one may land in it again
+            for (int remaining = bucket.size(); remaining > 0; remaining--) {
+                T timeout = bucket.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                if (timeout.getDeadline() <= now) {
+                    onExpired.accept(timeout);
+                }
+                else {
+                    schedule(timeout);
+                }
+            }
+        }
+        nextTick = currentTick + 1;
+    }
+
+    private Queue<T> bucketOf(long deadline) {
+        return buckets[(int) ((deadline / tickMs) % buckets.length)];
+    }
+}
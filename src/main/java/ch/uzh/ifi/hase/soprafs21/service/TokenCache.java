@@ -0,0 +1,103 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+
+/**
+ * Token Cache
+ * This class keeps the users (as UserGetDTO) that were recently looked up by their token in memory, such that the frequent
+ * token lookups (e.g., POST /token on every page load) do not need a database round trip.
+ * The cache is bounded: once it is full, the tokens that are used least are evicted, and every token is evicted
+ * users.token-cache.expire-after-write-ms after it was looked up. It is a Caffeine cache, a lookup never waits for
+ * a lock.
+ * Whoever changes a user or its token has to evict the old token from the cache; the edited users are evicted here,
+ * once the edit was committed.
+ * The cache keeps copies: the users put into it and the ones returned can be changed by the caller (e.g., their
+ * status), without the change reaching the cache or another caller.
+ * The size and the hits and misses are published as cache.size and cache.gets (cache=tokens).
+ */
+@Component
+public class TokenCache implements MeterBinder {
+
+    private final Cache<String, UserGetDTO> usersByToken;
+
+    public TokenCache(@Value("${users.token-cache.maximum-size:10000}") int maximumSize,
+                      @Value("${users.token-cache.expire-after-write-ms:600000}") long expireAfterWriteMs) {
+        this.usersByToken = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMs))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param token login token of the user
+     * @return a copy of the cached user or null if the token is not cached
+     */
+    public UserGetDTO get(String token) {
+        UserGetDTO user = usersByToken.getIfPresent(token);
+        return user != null ? copy(user) : null;
+    }
+
+    public void put(UserGetDTO user) {
+        if (user.getToken() != null) {
+            usersByToken.put(user.getToken(), copy(user));
+        }
+    }
+
+    public void evict(String token) {
+        if (token != null) {
+            usersByToken.invalidate(token);
+        }
+    }
+
+    // not before the commit: a lookup in between would read the old user and cache it again
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.getType() == UserChangedEvent.Type.EDITED) {
+            evict(event.getUser().getToken());
+        }
+    }
+
+    public long getHits() {
+        return usersByToken.stats().hitCount();
+    }
+
+    public long getMisses() {
+        return usersByToken.stats().missCount();
+    }
+
+    public long size() {
+        return usersByToken.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cache.size", this, TokenCache::size)
+                .tag("cache", "tokens")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, TokenCache::getHits)
+                .tag("cache", "tokens")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, TokenCache::getMisses)
+                .tag("cache", "tokens")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    private static UserGetDTO copy(UserGetDTO user) {
+        return new UserGetDTO(user.getId(), user.getName(), user.getUsername(), user.getCreationDate(), user.getStatus(),
+                user.getBirthDay(), user.getToken(), user.getVersion());
+    }
+}
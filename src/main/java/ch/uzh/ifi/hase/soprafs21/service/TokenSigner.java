@@ -0,0 +1,148 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Token Signer
+ * Opt-in with users.tokens.signed=true: the tokens carry the id of the user and their expiry and are signed with
+ * HMAC-SHA256 ("v1.{userId}.{expiresAt}.{nonce}.{signature}"), so the user of a token is known without a database
+ * lookup. A logout revokes its token until it expires; the revoked tokens are only kept in memory.
+ * If no secret is configured (users.tokens.secret, base64), a random one is generated on startup, so the tokens
+ * signed before a restart are no longer valid afterwards.
+ */
+@Component
+public class TokenSigner {
+
+    static final String PREFIX = "v1.";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final Logger log = LoggerFactory.getLogger(TokenSigner.class);
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final boolean enabled;
+
+    private final long timeToLiveMs;
+
+    // a Mac is not thread-safe, every thread gets its own
+    private final ThreadLocal<Mac> macs;
+
+    // revoked token -> its expiry, the expired ones are removed by purgeRevokedTokens()
+    private final ConcurrentMap<String, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    public TokenSigner(@Value("${users.tokens.signed:false}") boolean enabled,
+                       @Value("${users.tokens.secret:}") String secret,
+                       @Value("${users.tokens.time-to-live-ms:86400000}") long timeToLiveMs) {
+        this.enabled = enabled;
+        this.timeToLiveMs = timeToLiveMs;
+        byte[] key;
+        if (secret.isEmpty()) {
+            key = new byte[32];
+            random.nextBytes(key);
+            if (enabled) {
+                log.warn("No users.tokens.secret configured, the signed tokens are only valid until the next restart");
+            }
+        }
+        else {
+            key = Base64.getDecoder().decode(secret);
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if the token has the format of a signed token, whether it is valid or not
+     */
+    public boolean isSigned(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     * @return a new token of the given user that expires after users.tokens.time-to-live-ms
+     */
+    public String sign(long userId) {
+        byte[] nonce = new byte[9];
+        random.nextBytes(nonce);
+        String payload = PREFIX + userId + "." + (System.currentTimeMillis() + timeToLiveMs) + "." + ENCODER.encodeToString(nonce);
+        return payload + "." + signature(payload);
+    }
+
+    /**
+     * @return the id of the user of the token, or null if the token is forged, expired or revoked
+     */
+    public Long verify(String token) {
+        if (!isSigned(token)) {
+            return null;
+        }
+        int signatureStart = token.lastIndexOf('.');
+        String payload = token.substring(0, signatureStart);
+        byte[] expectedSignature = signature(payload).getBytes(StandardCharsets.US_ASCII);
+        byte[] actualSignature = token.substring(signatureStart + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expectedSignature, actualSignature) || revokedTokens.containsKey(token)) {
+            return null;
+        }
+        // the payload is known to be ours: v1.{userId}.{expiresAt}.{nonce}
+        String[] parts = payload.split("\\.");
+        if (Long.parseLong(parts[2]) <= System.currentTimeMillis()) {
+            return null;
+        }
+        return Long.parseLong(parts[1]);
+    }
+
+    /**
+     * Makes the given token invalid, e.g. on logout. Tokens that are not valid anyway are ignored.
+     */
+    public void revoke(String token) {
+        if (verify(token) != null) {
+            String payload = token.substring(0, token.lastIndexOf('.'));
+            revokedTokens.put(token, Long.parseLong(payload.split("\\.")[2]));
+        }
+    }
+
+    /**
+     * Forgets the revoked tokens that expired in the meantime, they are rejected because of their expiry.
+     */
+    @Scheduled(fixedDelayString = "${users.tokens.purge-interval-ms:60000}")
+    public void purgeRevokedTokens() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    int revokedTokenCount() {
+        return revokedTokens.size();
+    }
+
+    private String signature(String payload) {
+        return ENCODER.encodeToString(macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+
+/**
+ * User Changed Event
+ * Published by the UserService whenever something that is visible in the user list changes:
+ * a user was created, edited or went ONLINE/OFFLINE.
+ */
+public class UserChangedEvent {
+
+    public enum Type {
+        CREATED, EDITED, STATUS_CHANGED
+    }
+
+    private final Type type;
+
+    private final User user;
+
+    public UserChangedEvent(Type type, User user) {
+        this.type = type;
+        this.user = user;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
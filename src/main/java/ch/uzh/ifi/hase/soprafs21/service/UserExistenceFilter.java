@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.ReplicaRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.stream.Stream;
+
+/**
+ * User Existence Filter
+ * This class remembers all usernames and names that are in use in two bloom filters. If the filter says that
+ * neither the username nor the name of a new user exist, the uniqueness lookups in the database can be skipped.
+ * A positive answer may be wrong, in that case the lookups have to be done as usual.
+ * The filter is filled when the application is ready and with every created or edited user. Until then it
+ * answers negatively, which is still safe because the unique constraints of the USER table catch any duplicate.
+ */
+@Component
+public class UserExistenceFilter {
+
+    private final Logger log = LoggerFactory.getLogger(UserExistenceFilter.class);
+
+    private final UserRepository userRepository;
+
+    private final BloomFilter usernames;
+
+    private final BloomFilter names;
+
+    public UserExistenceFilter(@Qualifier("userRepository") UserRepository userRepository,
+                               @Value("${users.existence-filter.expected-users:1000000}") long expectedUsers,
+                               @Value("${users.existence-filter.false-positive-probability:0.01}") double falsePositiveProbability) {
+        this.userRepository = userRepository;
+        this.usernames = new BloomFilter(expectedUsers, falsePositiveProbability);
+        this.names = new BloomFilter(expectedUsers, falsePositiveProbability);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void seed() {
+        // never from a replica, a user missing there would never be added
+        ReplicaRoutingDataSource.requirePrimary();
+        long count = 0;
+        try (Stream<Object[]> usernamesAndNames = userRepository.streamUsernamesAndNames()) {
+            for (Object[] usernameAndName : (Iterable<Object[]>) usernamesAndNames::iterator) {
+                add((String) usernameAndName[0], (String) usernameAndName[1]);
+                count++;
+            }
+        }
+        log.info("Seeded the user existence filter with {} users", count);
+    }
+
+    public void add(User user) {
+        add(user.getUsername(), user.getName());
+    }
+
+    public boolean mightContainUsername(String username) {
+        return username != null && usernames.mightContain(username);
+    }
+
+    public boolean mightContainName(String name) {
+        return name != null && names.mightContain(name);
+    }
+
+    private void add(String username, String name) {
+        if (username != null) {
+            usernames.put(username);
+        }
+        if (name != null) {
+            names.put(name);
+        }
+    }
+}
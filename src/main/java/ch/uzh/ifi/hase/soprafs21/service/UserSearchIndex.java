@@ -0,0 +1,238 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.repository.ReplicaRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * User Search Index
+ * Finds the users whose username or name (or a later word of the name) starts with a query, ignoring case, without
+ * the database. The terms are kept in sorted maps as "{term}\0{id}", so the terms with a given prefix are one range
+ * of a map, found in O(log n) like in a trie. Usernames match before names, the terms of each in lexicographic order
+ * (not by length): a term equal to the query comes first ("\0" sorts before every character), but "abcd" comes before
+ * "abz" when searching for "ab".
+ * If there are fewer matches than asked for, the query is also looked up with one typo: the variants of it with one
+ * character deleted, swapped with the next one, replaced or inserted, as far as any term starts with them.
+ * The index is filled when the application is ready and kept up to date with the committed UserChangedEvents.
+ * The maps are concurrent, so searching never waits for an update.
+ */
+@Component
+public class UserSearchIndex {
+
+    // shorter queries are only matched exactly, one typo in them matches nearly everything
+    static final int MIN_FUZZY_QUERY_LENGTH = 3;
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    private final UserRepository userRepository;
+
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<String, Long> usernames = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentNavigableMap<String, Long> names = new ConcurrentSkipListMap<>();
+
+    private static final class Entry {
+
+        // never handed out, search() returns copies
+        private final UsersGetDTO user;
+
+        private final String usernameKey;
+
+        private final List<String> nameKeys = new ArrayList<>(2);
+
+        private Entry(UsersGetDTO user) {
+            this.user = user;
+            this.usernameKey = user.getUsername() == null ? null : key(normalize(user.getUsername()), user.getId());
+            if (user.getName() != null) {
+                String name = normalize(user.getName());
+                nameKeys.add(key(name, user.getId()));
+                // the later words of the name, such that e.g. the last name can be searched as well
+                String[] words = name.split("\\s+");
+                for (int i = 1; i < words.length; i++) {
+                    nameKeys.add(key(words[i], user.getId()));
+                }
+            }
+        }
+    }
+
+    public UserSearchIndex(@Qualifier("userRepository") UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void seed() {
+        // never from a replica, a user missing there would never be indexed
+        ReplicaRoutingDataSource.requirePrimary();
+        long start = System.currentTimeMillis();
+        long count = 0;
+        try (Stream<UsersGetDTO> users = userRepository.streamAllUsersGetDTOs()) {
+            for (UsersGetDTO user : (Iterable<UsersGetDTO>) users::iterator) {
+                // a user that changed in the meantime is already indexed with its newer state
+                entries.computeIfAbsent(user.getId(), id -> index(new Entry(user)));
+                count++;
+            }
+        }
+        log.info("Indexed {} users for the search in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        put(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(event.getUser()));
+    }
+
+    /**
+     * Adds the user to the index or replaces its previous state.
+     */
+    public void put(UsersGetDTO user) {
+        entries.compute(user.getId(), (id, previousEntry) -> {
+            if (previousEntry != null) {
+                unindex(previousEntry);
+            }
+            return index(new Entry(user));
+        });
+    }
+
+    /**
+     * @param query the beginning of a username or name, case does not matter
+     * @param limit maximum number of users returned
+     * @return copies of the best matching users, at most limit
+     */
+    public List<UsersGetDTO> search(String query, int limit) {
+        String prefix = normalize(query);
+        Set<Long> userIds = new LinkedHashSet<>();
+        if (!prefix.isEmpty()) {
+            collect(usernames, prefix, userIds, limit);
+            collect(names, prefix, userIds, limit);
+            if (userIds.size() < limit && prefix.length() >= MIN_FUZZY_QUERY_LENGTH) {
+                collectWithOneTypo(usernames, prefix, userIds, limit);
+                collectWithOneTypo(names, prefix, userIds, limit);
+            }
+        }
+        List<UsersGetDTO> users = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                users.add(copyOf(entry.user));
+            }
+        }
+        return users;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry index(Entry entry) {
+        if (entry.usernameKey != null) {
+            usernames.put(entry.usernameKey, entry.user.getId());
+        }
+        for (String nameKey : entry.nameKeys) {
+            names.put(nameKey, entry.user.getId());
+        }
+        return entry;
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.usernameKey != null) {
+            usernames.remove(entry.usernameKey);
+        }
+        for (String nameKey : entry.nameKeys) {
+            names.remove(nameKey);
+        }
+    }
+
+    // adds the ids of the terms starting with the prefix, in the order of the terms, until there are limit ids
+    private static void collect(ConcurrentNavigableMap<String, Long> terms, String prefix, Set<Long> userIds, int limit) {
+        if (userIds.size() >= limit) {
+            return;
+        }
+        for (Long userId : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            userIds.add(userId);
+            if (userIds.size() >= limit) {
+                return;
+            }
+        }
+    }
+
+    // Looks up the variants of the prefix with one character deleted, swapped with the next one, replaced or inserted.
+    // Walks the sorted terms like a trie: a typo can only be at or before the first character that no term continues
+    // with, and a replaced or inserted character has to be one that a term continues with at that position.
+    private static void collectWithOneTypo(ConcurrentNavigableMap<String, Long> terms, String prefix, Set<Long> userIds, int limit) {
+        int existingLength = 0;
+        while (existingLength < prefix.length() && hasTermStartingWith(terms, prefix.substring(0, existingLength + 1))) {
+            existingLength++;
+        }
+        int lastPosition = Math.min(existingLength, prefix.length() - 1);
+        for (int i = 0; i <= lastPosition && userIds.size() < limit; i++) {
+            String head = prefix.substring(0, i);
+            collect(terms, head + prefix.substring(i + 1), userIds, limit);
+            if (i < prefix.length() - 1) {
+                collect(terms, head + prefix.charAt(i + 1) + prefix.charAt(i) + prefix.substring(i + 2), userIds, limit);
+            }
+            for (char next : nextCharacters(terms, head)) {
+                if (next != prefix.charAt(i)) {
+                    collect(terms, head + next + prefix.substring(i + 1), userIds, limit);
+                }
+                collect(terms, head + next + prefix.substring(i), userIds, limit);
+            }
+        }
+    }
+
+    private static boolean hasTermStartingWith(ConcurrentNavigableMap<String, Long> terms, String prefix) {
+        String term = terms.ceilingKey(prefix);
+        return term != null && term.startsWith(prefix);
+    }
+
+    // the characters the terms starting with the prefix continue with, one lookup per character
+    private static List<Character> nextCharacters(ConcurrentNavigableMap<String, Long> terms, String prefix) {
+        List<Character> nextCharacters = new ArrayList<>();
+        String term = terms.ceilingKey(prefix);
+        while (term != null && term.startsWith(prefix) && term.length() > prefix.length()) {
+            char next = term.charAt(prefix.length());
+            if (next != SEPARATOR) {
+                nextCharacters.add(next);
+            }
+            term = terms.ceilingKey(prefix + next + Character.MAX_VALUE);
+        }
+        return nextCharacters;
+    }
+
+    private static String normalize(String term) {
+        return term.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(String term, long id) {
+        return term + SEPARATOR + id;
+    }
+
+    private static UsersGetDTO copyOf(UsersGetDTO user) {
+        UsersGetDTO copy = new UsersGetDTO();
+        copy.setId(user.getId());
+        copy.setName(user.getName());
+        copy.setUsername(user.getUsername());
+        copy.setCreationDate(user.getCreationDate());
+        copy.setStatus(user.getStatus());
+        copy.setBirthDay(user.getBirthDay());
+        return copy;
+    }
+}
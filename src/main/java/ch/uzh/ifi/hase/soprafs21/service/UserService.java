@@ -2,19 +2,36 @@ package ch.uzh.ifi.hase.soprafs21.service;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.ReplicaRoutingDataSource;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.Date;
-import java.util.List;
-import java.util.UUID;
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * User Service
@@ -29,45 +46,287 @@ public class UserService {
 
     private final UserRepository userRepository;
 
+    private final EntityManager entityManager;
+
+    private final TokenCache tokenCache;
+
+    private final TokenSigner tokenSigner;
+
+    private final PresenceRegistry presenceRegistry;
+
+    private final SessionReaper sessionReaper;
+
+    private final UserExistenceFilter userExistenceFilter;
+
+    private final UserSearchIndex userSearchIndex;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    // for the inserts of createUsers, see saveNewUsers
+    private final TransactionTemplate newTransaction;
+
+    private final Counter successfulLogins;
+
+    private final Counter failedLogins;
+
+    private final Counter logouts;
+
+    private final Counter createdUsers;
+
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+    public UserService(@Qualifier("userRepository") UserRepository userRepository, EntityManager entityManager,
+                       TokenCache tokenCache, TokenSigner tokenSigner, PresenceRegistry presenceRegistry,
+                       SessionReaper sessionReaper, UserExistenceFilter userExistenceFilter, UserSearchIndex userSearchIndex,
+                       ApplicationEventPublisher eventPublisher,
+                       PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
         this.userRepository = userRepository;
+        this.entityManager = entityManager;
+        this.tokenCache = tokenCache;
+        this.tokenSigner = tokenSigner;
+        this.presenceRegistry = presenceRegistry;
+        this.sessionReaper = sessionReaper;
+        this.userExistenceFilter = userExistenceFilter;
+        this.userSearchIndex = userSearchIndex;
+        this.eventPublisher = eventPublisher;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.successfulLogins = meterRegistry.counter("users.logins", "outcome", "success");
+        this.failedLogins = meterRegistry.counter("users.logins", "outcome", "failure");
+        this.logouts = meterRegistry.counter("users.logouts");
+        this.createdUsers = meterRegistry.counter("users.created");
     }
 
-    public User getUserByToken(String token){
-        User user = userRepository.findByToken(token);
-        if( user == null) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token");
+    // The reads below select straight into the DTOs of the API (see the projections of the UserRepository).
+    // Their transactions are read-only: Spring sets the Hibernate session to FlushMode.MANUAL and the JDBC
+    // connection to read-only, so there is no dirty checking and no flush on commit. Setting the current
+    // status on a DTO is never written to the database anyway.
+    // With read replicas (ReplicaRoutingDataSource) the read-only transactions go to a replica, except for the ones
+    // whose result is kept: in the TokenCache, the query cache of Hibernate, or the UserPageCache and the clients
+    // under an ETag of the RosterVersion. Those would keep the state of a replica that is behind, under a version
+    // or until an expiry that assumes the state of the primary, so they read from the primary.
+    @Transactional(readOnly = true)
+    public UserGetDTO getUserByToken(String token){
+        ReplicaRoutingDataSource.requirePrimary();
+        if (tokenSigner.isSigned(token)) {
+            // the token tells who the user is, the rest of the user comes from the (query) cache or the database
+            UserGetDTO user = findUserById(getUserIdByToken(token));
+            user.setToken(token);
+            return user;
+        }
+        UserGetDTO user = tokenCache.get(token);
+        if (user == null) {
+            user = userRepository.findUserGetDTOByToken(token);
+            if( user == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token");
+            }
+            tokenCache.put(user);
         }
+        // every use of a token renews the session of its user
+        sessionReaper.renew(user.getId(), token);
+        user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus()));
         return user;
     }
-    public List<User> getUsers() {
-        return this.userRepository.findAll();
+
+    /**
+     * Returns the id of the user the token belongs to. A signed token is verified in memory,
+     * only the other tokens are looked up.
+     *
+     * @throws org.springframework.web.server.ResponseStatusException if the token is invalid, expired or revoked
+     */
+    @Transactional(readOnly = true)
+    public long getUserIdByToken(String token) {
+        if (tokenSigner.isSigned(token)) {
+            Long userId = tokenSigner.verify(token);
+            if (userId == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token");
+            }
+            sessionReaper.renew(userId, token);
+            return userId;
+        }
+        return getUserByToken(token).getId();
+    }
+
+    /**
+     * Returns at most limit users with an id greater than the given cursor, ordered by id.
+     * Whether there are more users after this page can be checked with Slice.hasNext().
+     *
+     * @param after id of the last user of the previous page (0 for the first page)
+     * @param limit maximum number of users on this page
+     */
+    @Transactional(readOnly = true)
+    public Slice<UsersGetDTO> getUsers(long after, int limit) {
+        ReplicaRoutingDataSource.requirePrimary();
+        Slice<UsersGetDTO> users = this.userRepository.findUsersGetDTOsByIdGreaterThan(after, PageRequest.of(0, limit, Sort.by("id")));
+        users.forEach(user -> user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus())));
+        return users;
+    }
+
+    /**
+     * Hands every user to the given consumer, one at a time and ordered by id.
+     * The users are read as DTOs and never become part of the persistence context,
+     * so the memory used does not grow with the number of users. With read replicas, the users come from a replica.
+     *
+     * @param consumer called once per user while the underlying result set is still open
+     */
+    @Transactional(readOnly = true)
+    public void exportUsers(Consumer<UsersGetDTO> consumer) {
+        try (Stream<UsersGetDTO> users = userRepository.streamAllUsersGetDTOs()) {
+            users.forEach(user -> {
+                user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus()));
+                consumer.accept(user);
+            });
+        }
+    }
+
+    /**
+     * Returns the users whose username or name starts with the query (or does so with one typo), best matches first.
+     * The users come from the UserSearchIndex, so no transaction (and no connection) is needed.
+     *
+     * @param limit maximum number of users returned
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<UsersGetDTO> searchUsers(String query, int limit) {
+        List<UsersGetDTO> users = userSearchIndex.search(query, limit);
+        users.forEach(user -> user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus())));
+        return users;
     }
 
     public User createUser(User newUser) {
         //create datge speichere
+        initializeNewUser(newUser);
 
-        newUser.setToken(UUID.randomUUID().toString());
-        newUser.setStatus(UserStatus.ONLINE);
-        Date creationDate = new Date();
-        newUser.setCreationDate(creationDate);
-
-        checkIfUserExists(newUser);
+        // nearly every new user is unique, the lookups are only needed if the filter is not sure about it
+        if (userExistenceFilter.mightContainUsername(newUser.getUsername()) || userExistenceFilter.mightContainName(newUser.getName())) {
+            checkIfUserExists(newUser);
+        }
 
         // saves the given entity but data is only persisted in the database once flush() is called
         newUser = userRepository.save(newUser);
-        userRepository.flush();
+        flushUsers();
+        signToken(newUser);
+        // a new user is ONLINE right away, so the registration starts a session like a login
+        sessionReaper.start(newUser.getId(), newUser.getToken());
+        userExistenceFilter.add(newUser);
+        createdUsers.increment();
+        eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, newUser));
 
         log.debug("Created Information for User: {}", newUser);
         return newUser;
     }
 
-    public User findUserById(long userId) {
-        User user = userRepository.findById(userId);
+    /**
+     * Creates all given users at once. The uniqueness of the usernames and names is checked with one query each
+     * (per 1000 users) and the users are inserted in JDBC batches. A user that cannot be created does not stop
+     * the others from being created, not even if its username or name was taken after the check. The inserts run in
+     * transactions of their own (see saveNewUsers), not in one of this method. The created users get their id and
+     * token set.
+     *
+     * @param newUsers the users to be created
+     * @return the error per index (in newUsers) of the users that could not be created
+     * @throws org.springframework.web.server.ResponseStatusException if one of the users is null
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Map<Integer, ResponseStatusException> createUsers(List<User> newUsers) {
+        if (newUsers.stream().anyMatch(Objects::isNull)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The users to be created must not be null.");
+        }
+        // only the usernames and names that might exist according to the filter have to be looked up
+        Set<String> usernames = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (User newUser : newUsers) {
+            if (userExistenceFilter.mightContainUsername(newUser.getUsername())) {
+                usernames.add(newUser.getUsername());
+            }
+            if (userExistenceFilter.mightContainName(newUser.getName())) {
+                names.add(newUser.getName());
+            }
+        }
+        Set<String> takenUsernames = findInBatches(usernames, userRepository::findExistingUsernames);
+        Set<String> takenNames = findInBatches(names, userRepository::findExistingNames);
+
+        Map<Integer, ResponseStatusException> errors = new HashMap<>();
+        // index in newUsers -> user
+        Map<Integer, User> usersToSave = new LinkedHashMap<>();
+        for (int i = 0; i < newUsers.size(); i++) {
+            User newUser = newUsers.get(i);
+            if (newUser.getUsername() == null || newUser.getName() == null || newUser.getPassword() == null) {
+                errors.put(i, new ResponseStatusException(HttpStatus.BAD_REQUEST, "The name, username and password have to be provided."));
+                continue;
+            }
+            ResponseStatusException error = uniquenessError(takenUsernames.contains(newUser.getUsername()), takenNames.contains(newUser.getName()));
+            if (error != null) {
+                errors.put(i, error);
+                continue;
+            }
+            // a later user of the same batch must not get the same username or name
+            takenUsernames.add(newUser.getUsername());
+            takenNames.add(newUser.getName());
+
+            initializeNewUser(newUser);
+            usersToSave.put(i, newUser);
+        }
+
+        List<User> savedUsers = saveNewUsers(usersToSave, errors);
+        for (User createdUser : savedUsers) {
+            sessionReaper.start(createdUser.getId(), createdUser.getToken());
+            userExistenceFilter.add(createdUser);
+            eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, createdUser));
+        }
+        createdUsers.increment(savedUsers.size());
+
+        log.debug("Created {} of {} users", savedUsers.size(), newUsers.size());
+        return errors;
+    }
+
+    /**
+     * Inserts all users in one transaction. If a username or name was taken since the check (the unique constraint
+     * is violated), that transaction is rolled back and the users are inserted one by one, each in a transaction of
+     * its own, so only the conflicting ones fail. Hibernate cannot go on with a session whose flush failed, hence
+     * the new transactions.
+     *
+     * @param usersToSave the users to be inserted by their index
+     * @param errors the errors by index, the conflicting users are added
+     * @return the inserted users
+     */
+    private List<User> saveNewUsers(Map<Integer, User> usersToSave, Map<Integer, ResponseStatusException> errors) {
+        try {
+            newTransaction.executeWithoutResult(status -> saveAndSign(usersToSave.values()));
+            return new ArrayList<>(usersToSave.values());
+        }
+        catch (ResponseStatusException e) {
+            log.debug("A username or name of the batch was taken in the meantime, inserting the users one by one");
+        }
+        List<User> savedUsers = new ArrayList<>(usersToSave.size());
+        for (Map.Entry<Integer, User> userToSave : usersToSave.entrySet()) {
+            User newUser = userToSave.getValue();
+            // assigned by the insert that was rolled back
+            newUser.setId(null);
+            newUser.setVersion(null);
+            try {
+                newTransaction.executeWithoutResult(status -> saveAndSign(Collections.singletonList(newUser)));
+                savedUsers.add(newUser);
+            }
+            catch (ResponseStatusException e) {
+                errors.put(userToSave.getKey(), e);
+            }
+        }
+        return savedUsers;
+    }
+
+    private void saveAndSign(Collection<User> newUsers) {
+        userRepository.saveAll(newUsers);
+        flushUsers();
+        newUsers.forEach(this::signToken);
+    }
+
+    @Transactional(readOnly = true)
+    public UserGetDTO findUserById(long userId) {
+        ReplicaRoutingDataSource.requirePrimary();
+        UserGetDTO user = userRepository.findUserGetDTOById(userId);
         if (user == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, " User does not exist with this ID.");
         } else {
+            user.setStatus(presenceRegistry.statusOf(user.getId(), user.getStatus()));
             return user;
         }
     }
@@ -75,28 +334,71 @@ public class UserService {
     //TODO: edit-logic has to be implemented
     public User edit(long id, User userInput) {
         User user =  userRepository.findById(id);
+        // the token is evicted from the TokenCache once the edit was committed
         user.setUsername(userInput.getUsername());
         user.setBirthDay(userInput.getBirthDay());
         user.setName(userInput.getName());
+        // the whole row is written, so it has to carry the current status and not the stale one
+        presenceRegistry.applyTo(user);
+        // written now, such that a username or name that is taken results in the same error as for a new user
+        flushUsers();
+        userExistenceFilter.add(user);
+        eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.EDITED, user));
         return user;
     }
 
     //TODO: do el refactoring
+    // the status only changes in the presence registry, which writes it to the database later on.
+    // A login always reads from the primary: the user might have just been created.
+    @Transactional(readOnly = true)
     public User Login(User inputUser) {
+        ReplicaRoutingDataSource.requirePrimary();
         User user = userRepository.findByUsername(inputUser.getUsername());
         if(user != null) {
             if(user.getPassword().equals(inputUser.getPassword())) {
-                user.setStatus(UserStatus.ONLINE);
+                boolean statusChanged = presenceRegistry.markOnline(user.getId());
+                presenceRegistry.applyTo(user);
+                // every login gets a new signed token, it is not stored (the transaction is read-only)
+                if (tokenSigner.isEnabled()) {
+                    user.setToken(tokenSigner.sign(user.getId()));
+                }
+                sessionReaper.start(user.getId(), user.getToken());
+                if (statusChanged) {
+                    eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.STATUS_CHANGED, user));
+                }
+                successfulLogins.increment();
                 return user;
             }
         }
+        failedLogins.increment();
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "wrong user or password combination");
     }
 
+    @Transactional(readOnly = true)
     public User Logout(User inputUser) {
+        ReplicaRoutingDataSource.requirePrimary();
         if(inputUser.getToken() != null) {
-            inputUser.setStatus(UserStatus.OFFLINE);
-            return inputUser;
+            // the entity is needed for the event, so the token cache is not used here
+            User user;
+            if (tokenSigner.isSigned(inputUser.getToken())) {
+                user = userRepository.findById(getUserIdByToken(inputUser.getToken()));
+                tokenSigner.revoke(inputUser.getToken());
+            }
+            else {
+                user = userRepository.findByToken(inputUser.getToken());
+            }
+            if (user == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "invalid token");
+            }
+            tokenCache.evict(user.getToken());
+            sessionReaper.end(user.getId());
+            boolean statusChanged = presenceRegistry.markOffline(user.getId());
+            presenceRegistry.applyTo(user);
+            if (statusChanged) {
+                eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.STATUS_CHANGED, user));
+            }
+            logouts.increment();
+            return user;
         }
         else {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "User is not logged in anymore. Maybe your login-token has expired or some other" +
@@ -104,6 +406,22 @@ public class UserService {
         }
     }
 
+    static void initializeNewUser(User newUser) {
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.ONLINE);
+        Date creationDate = new Date();
+        newUser.setCreationDate(creationDate);
+    }
+
+    // The stored token stays the random one, the signed token is only handed out. The user is detached first,
+    // otherwise the changed token would be written with an additional UPDATE on commit.
+    private void signToken(User newUser) {
+        if (tokenSigner.isEnabled()) {
+            entityManager.detach(newUser);
+            newUser.setToken(tokenSigner.sign(newUser.getId()));
+        }
+    }
+
     /**
      * This is a helper method that will check the uniqueness criteria of the username and the name
      * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
@@ -116,15 +434,58 @@ public class UserService {
         User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
         User userByName = userRepository.findByName(userToBeCreated.getName());
 
+        ResponseStatusException error = uniquenessError(userByUsername != null, userByName != null);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Writes the saved or changed users. If another user with the same username or name exists (e.g., it was
+     * created in the meantime), the unique constraint of the table is violated, which results in the same error
+     * as checkIfUserExists.
+     *
+     * @throws org.springframework.web.server.ResponseStatusException
+     */
+    private void flushUsers() {
+        try {
+            userRepository.flush();
+        }
+        catch (DataIntegrityViolationException e) {
+            String constraintName = e.getCause() instanceof ConstraintViolationException ?
+                    ((ConstraintViolationException) e.getCause()).getConstraintName() : null;
+            if (constraintName != null && constraintName.toUpperCase().contains(User.USERNAME_CONSTRAINT)) {
+                throw uniquenessError(true, false);
+            }
+            else if (constraintName != null && constraintName.toUpperCase().contains(User.NAME_CONSTRAINT)) {
+                throw uniquenessError(false, true);
+            }
+            throw e;
+        }
+    }
+
+    static ResponseStatusException uniquenessError(boolean usernameTaken, boolean nameTaken) {
         String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null && userByName != null) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "username and the name", "are"));
+        if (usernameTaken && nameTaken) {
+            return new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "username and the name", "are"));
         }
-        else if (userByUsername != null) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "username", "is"));
+        else if (usernameTaken) {
+            return new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "username", "is"));
         }
-        else if (userByName != null) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "name", "is"));
+        else if (nameTaken) {
+            return new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "name", "is"));
+        }
+        return null;
+    }
+
+    // runs the given "in (...)" query for at most 1000 values at a time
+    private Set<String> findInBatches(Set<String> values, Function<Collection<String>, Set<String>> query) {
+        List<String> valueList = new ArrayList<>(values);
+        valueList.remove(null);
+        Set<String> found = new HashSet<>();
+        for (int from = 0; from < valueList.size(); from += 1000) {
+            found.addAll(query.apply(valueList.subList(from, Math.min(from + 1000, valueList.size()))));
         }
+        return found;
     }
 }
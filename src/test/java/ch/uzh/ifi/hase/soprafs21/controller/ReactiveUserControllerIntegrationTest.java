@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.rest.dto.LoginPostDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * ReactiveUserControllerIntegrationTest
+ * Runs the reactive profile on Netty with R2DBC against its own in-memory database.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.datasource.url=jdbc:h2:mem:reactive")
+@ActiveProfiles("reactive")
+public class ReactiveUserControllerIntegrationTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    public void createUser_thenLoginAndTokenLookup_success() {
+        // given
+        UserGetDTO createdUser = createUser("reactiveName", "reactiveUsername");
+        assertNotNull(createdUser.getId());
+        assertNotNull(createdUser.getToken());
+
+        LoginPostDTO loginPostDTO = new LoginPostDTO();
+        loginPostDTO.setUsername("reactiveUsername");
+        loginPostDTO.setPassword("password");
+
+        // when/then
+        webTestClient.post().uri("/login").bodyValue(loginPostDTO).exchange()
+                .expectStatus().isCreated()
+                .expectBody().jsonPath("$.status").isEqualTo("ONLINE");
+
+        UserGetDTO tokenDTO = new UserGetDTO();
+        tokenDTO.setToken(createdUser.getToken());
+        webTestClient.post().uri("/token").bodyValue(tokenDTO).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.id").isEqualTo(createdUser.getId());
+    }
+
+    @Test
+    public void createUser_duplicateUsername_badRequest() {
+        // given
+        createUser("firstName", "duplicateUsername");
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName("secondName");
+        userPostDTO.setUsername("duplicateUsername");
+        userPostDTO.setPassword("password");
+
+        // then
+        webTestClient.post().uri("/users").bodyValue(userPostDTO).exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getUserById_withETag_notModified() {
+        // given
+        UserGetDTO createdUser = createUser("eTagName", "eTagUsername");
+
+        String eTag = webTestClient.get().uri("/users/{userId}", createdUser.getId()).exchange()
+                .expectStatus().isOk()
+                .expectBody(UserGetDTO.class).returnResult()
+                .getResponseHeaders().getETag();
+
+        // then
+        webTestClient.get().uri("/users/{userId}", createdUser.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag).exchange()
+                .expectStatus().isNotModified();
+        webTestClient.get().uri("/users/{userId}", Long.MAX_VALUE).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private UserGetDTO createUser(String name, String username) {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName(name);
+        userPostDTO.setUsername(username);
+        userPostDTO.setPassword("password");
+
+        UserGetDTO createdUser = webTestClient.post().uri("/users").bodyValue(userPostDTO).exchange()
+                .expectStatus().isCreated()
+                .expectBody(UserGetDTO.class).returnResult().getResponseBody();
+        assertNotNull(createdUser);
+        assertEquals(username, createdUser.getUsername());
+        return createdUser;
+    }
+}
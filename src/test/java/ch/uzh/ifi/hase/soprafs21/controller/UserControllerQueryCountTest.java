@@ -0,0 +1,195 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.querycount.QueryCounter;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.LoginPostDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs21.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * UserControllerQueryCountTest
+ * Sends the requests through the whole application and fails if an endpoint issues more SQL statements than its
+ * budget, e.g. because a list turned into an N+1 query. The caches are cleared before every test, so the budgets
+ * hold for a cold cache. The statements per endpoint are reported in build/reports/query-count/endpoints.txt.
+ */
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:querycount", QueryCounter.PROPERTY})
+@AutoConfigureMockMvc
+public class UserControllerQueryCountTest {
+
+    private static final int USERS = 30;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private List<User> users;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+        users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(userService.createUser(newUser("name" + i, "username" + i)));
+        }
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+    }
+
+    @AfterAll
+    public static void writeReport() {
+        QueryCounter.writeReport("endpoints.txt");
+    }
+
+    @Test
+    public void getUsers_onePage_oneStatement() throws Exception {
+        perform("GET /users", 1, get("/users?limit=100")).andExpect(status().isOk());
+    }
+
+    @Test
+    public void streamUsers_allUsers_oneStatement() throws Exception {
+        perform("GET /users/stream", 1, get("/users/stream").accept(MediaType.APPLICATION_NDJSON)).andExpect(status().isOk());
+    }
+
+    @Test
+    public void getUserById_oneStatement() throws Exception {
+        perform("GET /users/{userId}", 1, get("/users/{userId}", users.get(0).getId())).andExpect(status().isOk());
+    }
+
+    @Test
+    public void searchUsers_noStatement() throws Exception {
+        // the users are indexed in memory when they are created
+        perform("GET /users/search", 0, get("/users/search?q=username1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].username", is("username1")));
+    }
+
+    @Test
+    public void userByToken_oneStatement() throws Exception {
+        UserGetDTO userGetDTO = new UserGetDTO();
+        userGetDTO.setToken(users.get(0).getToken());
+
+        perform("POST /token", 1, post("/token").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userGetDTO)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void login_oneStatement() throws Exception {
+        LoginPostDTO loginPostDTO = new LoginPostDTO();
+        loginPostDTO.setUsername("username0");
+        loginPostDTO.setPassword("password");
+
+        // the user is loaded by its natural id
+        perform("POST /login", 1, post("/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(loginPostDTO)))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    public void logout_oneStatement() throws Exception {
+        LoginPostDTO loginPostDTO = new LoginPostDTO();
+        loginPostDTO.setToken(users.get(0).getToken());
+
+        perform("PUT /logout", 1, put("/logout").contentType(MediaType.APPLICATION_JSON).content(asJsonString(loginPostDTO)))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void editUser_twoStatements() throws Exception {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setName("otherName");
+        userPutDTO.setUsername("otherUsername");
+
+        // the select and the update of the user
+        perform("PUT /users/{userId}", 2, put("/users/{userId}", users.get(0).getId())
+                .contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPutDTO)))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void createUser_newUser_twoStatements() throws Exception {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName("newName");
+        userPostDTO.setUsername("newUsername");
+        userPostDTO.setPassword("password");
+
+        // at most one call of the sequence and the insert, the existence filter saves the lookups
+        perform("POST /users", 2, post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    public void createUsers_batch_statementsDoNotGrowPerUser() throws Exception {
+        List<UserPostDTO> userPostDTOs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            UserPostDTO userPostDTO = new UserPostDTO();
+            userPostDTO.setName("batchName" + i);
+            userPostDTO.setUsername("batchUsername" + i);
+            userPostDTO.setPassword("password");
+            userPostDTOs.add(userPostDTO);
+        }
+
+        // at most one sequence call per 50 ids and one insert per JDBC batch of 50
+        perform("POST /users/batch (200 users)", 8, post("/users/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTOs)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void checkIfUserExists_takenUsername_twoStatements() throws Exception {
+        // the existence filter knows the username, so the uniqueness has to be checked in the database
+        User duplicate = newUser("otherName", "username0");
+
+        QueryCounter.assertAtMost("UserService.createUser (taken username)", 2,
+                () -> assertThrows(ResponseStatusException.class, () -> userService.createUser(duplicate)));
+    }
+
+    private ResultActions perform(String name, int budget, RequestBuilder request) throws Exception {
+        return QueryCounter.assertAtMost(name, budget, () -> mockMvc.perform(request));
+    }
+
+    private User newUser(String name, String username) {
+        User user = new User();
+        user.setName(name);
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+
+    private String asJsonString(Object object) throws Exception {
+        return objectMapper.writeValueAsString(object);
+    }
+}
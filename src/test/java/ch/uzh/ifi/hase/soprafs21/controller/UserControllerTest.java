@@ -1,34 +1,70 @@
 package ch.uzh.ifi.hase.soprafs21.controller;
 
+import ch.uzh.ifi.hase.soprafs21.BinaryFormatsConfiguration;
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.exceptions.GlobalExceptionAdvice;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.LoginPostDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs21.service.LoginThrottle;
+import ch.uzh.ifi.hase.soprafs21.service.RosterVersion;
+import ch.uzh.ifi.hase.soprafs21.service.UserChangedEvent;
 import ch.uzh.ifi.hase.soprafs21.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -37,14 +73,37 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+@Import({SimpleMeterRegistry.class, RosterVersion.class, UserEventBroadcaster.class, UserPageCache.class, BinaryFormatsConfiguration.class,
+        LoginThrottle.class})
 public class UserControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private UserEventBroadcaster userEventBroadcaster;
+
+    @Autowired
+    private RosterVersion rosterVersion;
+
+    @Autowired
+    private UserPageCache userPageCache;
+
     @MockBean
     private UserService userService;
 
+    @Value("${users.login-throttle.per-username.burst}")
+    private int loginBurst;
+
+    @BeforeEach
+    public void setup() {
+        // the service is mocked per test, without a change to the roster version the pages would stay cached
+        userPageCache.clear();
+    }
+
     @Test
     public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
         // given
@@ -53,10 +112,8 @@ public class UserControllerTest {
         user.setUsername("firstname@lastname");
         user.setStatus(UserStatus.OFFLINE);
 
-        List<User> allUsers = Collections.singletonList(user);
-
         // this mocks the UserService -> we define above what the userService should return when getUsers() is called
-        given(userService.getUsers()).willReturn(allUsers);
+        given(userService.getUsers(0L, UserController.DEFAULT_PAGE_SIZE)).willReturn(new SliceImpl<>(Collections.singletonList(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user))));
 
         // when
         MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -66,9 +123,195 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0].name", is(user.getName())))
                 .andExpect(jsonPath("$[0].username", is(user.getUsername())))
+                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())))
+                .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void givenMoreUsers_whenGetUsersPage_thenReturnNextCursor() throws Exception {
+        // given
+        User first = new User();
+        first.setId(3L);
+        first.setUsername("first");
+        User second = new User();
+        second.setId(7L);
+        second.setUsername("second");
+
+        // the slice reports that there are more users after this page
+        given(userService.getUsers(2L, 2)).willReturn(new SliceImpl<>(Arrays.asList(
+                DTOMapper.INSTANCE.convertEntityToUsersGetDTO(first), DTOMapper.INSTANCE.convertEntityToUsersGetDTO(second)), PageRequest.of(0, 2), true));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users?after=2&limit=2").contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[1].username", is(second.getUsername())))
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "7"));
+    }
+
+    @Test
+    public void givenUnchangedUsers_whenGetUsersWithETag_thenNotModified() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        given(userService.getUsers(0L, UserController.DEFAULT_PAGE_SIZE)).willReturn(new SliceImpl<>(Collections.singletonList(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user))));
+
+        String eTag = mockMvc.perform(get("/users")).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // when -> the client sends the ETag of the page it already has
+        MockHttpServletRequestBuilder getRequest = get("/users").header(HttpHeaders.IF_NONE_MATCH, eTag);
+
+        // then -> answered without asking the service again
+        mockMvc.perform(getRequest).andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        Mockito.verify(userService, Mockito.times(1)).getUsers(0L, UserController.DEFAULT_PAGE_SIZE);
+
+        // then -> another format or content-coding is another representation, with its own ETag
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, eTag).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, eTag).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
+    @Test
+    public void givenUnchangedUsers_whenGetUsersTwice_thenServedFromCache() throws Exception {
+        // given
+        List<UsersGetDTO> usersGetDTOs = new ArrayList<>();
+        for (long i = 1; i <= 50; i++) {
+            User user = new User();
+            user.setId(i);
+            user.setName("Firstname Lastname " + i);
+            user.setUsername("firstname@lastname" + i);
+            user.setStatus(UserStatus.OFFLINE);
+            usersGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user));
+        }
+        given(userService.getUsers(0L, UserController.DEFAULT_PAGE_SIZE)).willReturn(new SliceImpl<>(usersGetDTOs));
+
+        byte[] body = mockMvc.perform(get("/users")).andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // when -> the same page again, this time compressed
+        MockHttpServletRequestBuilder getRequest = get("/users").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+
+        // then -> the cached bytes, without asking the service again
+        MvcResult result = mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn();
+        try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            assertArrayEquals(body, StreamUtils.copyToByteArray(gunzip));
+        }
+        Mockito.verify(userService, Mockito.times(1)).getUsers(0L, UserController.DEFAULT_PAGE_SIZE);
+
+        // a change of the roster makes the cached page outdated
+        rosterVersion.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.EDITED, new User()));
+        mockMvc.perform(get("/users")).andExpect(status().isOk());
+        Mockito.verify(userService, Mockito.times(2)).getUsers(0L, UserController.DEFAULT_PAGE_SIZE);
+    }
+
+    @Test
+    public void getUsers_unsupportedFormat_notAcceptable() throws Exception {
+        MockHttpServletRequestBuilder getRequest = get("/users").accept(MediaType.APPLICATION_XML);
+
+        mockMvc.perform(getRequest).andExpect(status().isNotAcceptable());
+        Mockito.verifyNoInteractions(userService);
+    }
+
+    @Test
+    public void givenMatchingUser_whenSearchUsers_thenReturnJsonArray() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.searchUsers("first", UserController.DEFAULT_SEARCH_LIMIT))
+                .willReturn(Collections.singletonList(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user)));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/search?q=first");
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].username", is(user.getUsername())))
                 .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void searchUsers_blankQuery_badRequest() throws Exception {
+        mockMvc.perform(get("/users/search?q= ")).andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(userService);
+    }
+
+    @Test
+    public void givenSubscriber_whenUserCreated_thenEventIsPushed() throws Exception {
+        // given
+        MvcResult subscription = mockMvc.perform(get("/users/events")).andExpect(request().asyncStarted()).andReturn();
+
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+
+        // when
+        userEventBroadcaster.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.CREATED, user));
+
+        // then -> the event is sent by a sender thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!subscription.getResponse().getContentAsString().contains("firstname@lastname") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        String events = subscription.getResponse().getContentAsString();
+        assertTrue(events.contains("event:CREATED"), events);
+        assertTrue(events.contains("\"username\":\"firstname@lastname\""), events);
+    }
+
+    @Test
+    public void getUsers_invalidLimit_badRequest() throws Exception {
+        MockHttpServletRequestBuilder getRequest = get("/users?limit=0").contentType(MediaType.APPLICATION_JSON);
+
+        mockMvc.perform(getRequest).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void givenUsers_whenStreamUsers_thenReturnOneJsonDocumentPerLine() throws Exception {
+        // given
+        User first = new User();
+        first.setId(1L);
+        first.setUsername("first");
+        first.setStatus(UserStatus.ONLINE);
+        User second = new User();
+        second.setId(2L);
+        second.setUsername("second");
+        second.setStatus(UserStatus.OFFLINE);
+
+        // the service hands the users to the controller one after the other
+        willAnswer(invocation -> {
+            Consumer<UsersGetDTO> consumer = invocation.getArgument(0);
+            consumer.accept(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(first));
+            consumer.accept(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(second));
+            return null;
+        }).given(userService).exportUsers(Mockito.any());
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/stream").accept(MediaType.APPLICATION_NDJSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        "{\"id\":1,\"name\":null,\"username\":\"first\",\"creationDate\":null,\"status\":\"ONLINE\",\"birthDay\":null}\n" +
+                        "{\"id\":2,\"name\":null,\"username\":\"second\",\"creationDate\":null,\"status\":\"OFFLINE\",\"birthDay\":null}\n"));
+    }
+
     @Test
     public void createUser_validInput_userCreated() throws Exception {
         // given
@@ -99,6 +342,120 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void givenUsers_whenGetUsersAsCbor_thenReturnCborArray() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.getUsers(0L, UserController.DEFAULT_PAGE_SIZE)).willReturn(new SliceImpl<>(Collections.singletonList(DTOMapper.INSTANCE.convertEntityToUsersGetDTO(user))));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users").accept(MediaType.APPLICATION_CBOR);
+
+        // then -> the same list as with JSON, and caches are told that the body depends on the Accept header
+        MvcResult result = mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING)))
+                .andReturn();
+        UsersGetDTO[] usersGetDTOs = new CBORMapper().readValue(result.getResponse().getContentAsByteArray(), UsersGetDTO[].class);
+        assertEquals(1, usersGetDTOs.length);
+        assertEquals(user.getUsername(), usersGetDTOs[0].getUsername());
+        assertEquals(user.getStatus(), usersGetDTOs[0].getStatus());
+    }
+
+    @Test
+    public void createUser_smileBody_smileResponse() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setName("Test User");
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName("Test User");
+        userPostDTO.setUsername("testUsername");
+
+        given(userService.createUser(Mockito.any())).willReturn(user);
+
+        // when
+        MediaType smile = BinaryFormatsConfiguration.APPLICATION_SMILE;
+        MockHttpServletRequestBuilder postRequest = post("/users")
+                .contentType(smile)
+                .accept(smile)
+                .content(new SmileMapper().writeValueAsBytes(userPostDTO));
+
+        // then
+        MvcResult result = mockMvc.perform(postRequest)
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(smile))
+                .andReturn();
+        UserGetDTO userGetDTO = new SmileMapper().readValue(result.getResponse().getContentAsByteArray(), UserGetDTO.class);
+        assertEquals(user.getId(), userGetDTO.getId());
+        assertEquals(user.getUsername(), userGetDTO.getUsername());
+        Mockito.verify(userService).createUser(Mockito.argThat(input -> "testUsername".equals(input.getUsername())));
+    }
+
+    @Test
+    public void createUsers_oneConflict_reportedPerUser() throws Exception {
+        // given
+        UserPostDTO first = new UserPostDTO();
+        first.setName("first");
+        first.setUsername("first");
+        first.setPassword("password");
+        UserPostDTO second = new UserPostDTO();
+        second.setName("second");
+        second.setUsername("first");
+        second.setPassword("password");
+
+        // the service creates the first user and rejects the second one
+        given(userService.createUsers(Mockito.any())).willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            users.get(0).setId(1L);
+            users.get(0).setToken("1");
+            return Map.of(1, new ResponseStatusException(HttpStatus.BAD_REQUEST, "not unique"));
+        });
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(first, second)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].status", is(HttpStatus.CREATED.value())))
+                .andExpect(jsonPath("$[0].user.id", is(1)))
+                .andExpect(jsonPath("$[0].user.token", is("1")))
+                .andExpect(jsonPath("$[1].index", is(1)))
+                .andExpect(jsonPath("$[1].status", is(HttpStatus.BAD_REQUEST.value())))
+                .andExpect(jsonPath("$[1].message", is("not unique")));
+    }
+
+    @Test
+    public void createUsers_nullUser_badRequest() throws Exception {
+        // given
+        UserPostDTO first = new UserPostDTO();
+        first.setName("first");
+        first.setUsername("first");
+        first.setPassword("password");
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(first, null)));
+
+        // then -> rejected before any user is created
+        mockMvc.perform(postRequest)
+                .andExpect(status().isBadRequest());
+        Mockito.verify(userService, Mockito.never()).createUsers(Mockito.any());
+    }
+
     @Test
     public void tokenDoesGetSet() throws Exception {
         // given
@@ -113,7 +470,7 @@ public class UserControllerTest {
         UserGetDTO userGetDTO = new UserGetDTO();
         userGetDTO.setToken(user.getToken());
 
-        given(userService.getUserByToken(Mockito.any())).willReturn(user);
+        given(userService.getUserByToken(Mockito.any())).willReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = post("/token")
@@ -139,7 +496,7 @@ public class UserControllerTest {
         UserGetDTO userGetDTO = new UserGetDTO();
         userGetDTO.setToken(user.getToken());
 
-        given(userService.getUserByToken(Mockito.any())).willReturn(user);
+        given(userService.getUserByToken(Mockito.any())).willReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = put("/logout")
@@ -182,6 +539,29 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void login_tooManyAttempts_throttledBeforeService() throws Exception {
+        // given
+        LoginPostDTO loginPostDTO = new LoginPostDTO();
+        loginPostDTO.setPassword("wrongPassword");
+        loginPostDTO.setUsername("throttledUsername");
+
+        given(userService.Login(Mockito.any())).willThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "wrong user or password combination"));
+
+        MockHttpServletRequestBuilder postRequest = post("/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(loginPostDTO));
+
+        // when -> the burst of the username is used up
+        for (int i = 0; i < loginBurst; i++) {
+            mockMvc.perform(postRequest).andExpect(status().isBadRequest());
+        }
+
+        // then -> the next attempt does not reach the UserService
+        mockMvc.perform(postRequest).andExpect(status().isTooManyRequests());
+        Mockito.verify(userService, Mockito.times(loginBurst)).Login(Mockito.any());
+    }
+
     @Test
     public void get_nonExistingUserById() throws Exception {
         // given
@@ -191,6 +571,36 @@ public class UserControllerTest {
         mockMvc.perform(getRequest).andExpect(status().isNotFound()).andExpect(status().is4xxClientError());
     }
 
+    @Test
+    public void editUser_concurrentEdit_conflict() throws Exception {
+        // given -> another edit of the user was committed first
+        given(userService.edit(Mockito.eq(1L), Mockito.any())).willThrow(new ObjectOptimisticLockingFailureException(User.class, 1L));
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setName("otherName");
+
+        MockHttpServletRequestBuilder putRequest = put("/users/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPutDTO));
+
+        // then
+        mockMvc.perform(putRequest).andExpect(status().isConflict());
+    }
+
+    @Test
+    public void getUserById_serviceThrows_errorCountedByStatus() throws Exception {
+        // given
+        given(userService.findUserById(2L)).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, " User does not exist with this ID."));
+
+        MockHttpServletRequestBuilder getRequest = get("/users/2").contentType(MediaType.APPLICATION_JSON);
+        // the registry is shared by all tests of this class
+        Counter notFoundErrors = meterRegistry.counter(GlobalExceptionAdvice.METRIC_NAME, "status", "404", "exception", "ResponseStatusException");
+        double notFoundErrorsBefore = notFoundErrors.count();
+
+        // then -> the usual error response, and the error is counted
+        mockMvc.perform(getRequest).andExpect(status().isNotFound());
+        assertEquals(notFoundErrorsBefore + 1, notFoundErrors.count());
+    }
+
     /*
     @Test
     public void changeNonExistingUser() throws Exception {
@@ -244,7 +654,7 @@ public class UserControllerTest {
         user.setPassword("test");
         user.setToken("1");
         user.setStatus(UserStatus.ONLINE);
-        given(userService.findUserById(Mockito.anyLong())).willReturn(user);
+        given(userService.findUserById(Mockito.anyLong())).willReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
 
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setName("Test User");
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs21.querycount;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * QueryCounter
+ * Records the SQL statements Hibernate prepares, such that a test can assert how many statements a request or a
+ * service call issues at most. It is registered as the statement inspector of Hibernate with the property
+ * {@value #PROPERTY}. Only the statements of the thread that runs the measured call are counted, so e.g. the
+ * flushes of the PresenceRegistry in the background do not count.
+ * Every measurement is added to a report, which writeReport() writes to build/reports/query-count/ (or the
+ * directory given by the system property querycount.report-dir).
+ */
+public class QueryCounter implements StatementInspector {
+
+    public static final String PROPERTY = "spring.jpa.properties.hibernate.session_factory.statement_inspector=ch.uzh.ifi.hase.soprafs21.querycount.QueryCounter";
+
+    private static final ThreadLocal<List<String>> recordedStatements = new ThreadLocal<>();
+
+    // name of the measurement -> line of the report, sorted by name
+    private static final Map<String, String> report = new ConcurrentSkipListMap<>();
+
+    @Override
+    public String inspect(String sql) {
+        List<String> statements = recordedStatements.get();
+        if (statements != null) {
+            statements.add(sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Runs the given call and fails if it issued more than budget statements.
+     *
+     * @param name name of the endpoint or method in the report, e.g. "GET /users"
+     * @param budget maximum number of statements
+     * @return the result of the call
+     */
+    public static <T> T assertAtMost(String name, int budget, Callable<T> call) throws Exception {
+        List<String> statements = new ArrayList<>();
+        recordedStatements.set(statements);
+        T result;
+        try {
+            result = call.call();
+        }
+        finally {
+            recordedStatements.remove();
+        }
+        report.put(name, String.format("%-40s %3d of %3d statements%n%s", name, statements.size(), budget, format(statements)));
+        assertTrue(statements.size() <= budget, String.format("%s issued %d statements, the budget is %d:%n%s",
+                name, statements.size(), budget, format(statements)));
+        return result;
+    }
+
+    /**
+     * Writes the measurements of all tests so far to the report file with the given name.
+     */
+    public static void writeReport(String fileName) {
+        Path directory = Paths.get(System.getProperty("querycount.report-dir", "build/reports/query-count"));
+        try {
+            Files.createDirectories(directory);
+            Files.write(directory.resolve(fileName), String.join(System.lineSeparator(), report.values()).getBytes());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String format(List<String> statements) {
+        StringBuilder builder = new StringBuilder();
+        for (String statement : statements) {
+            builder.append("    ").append(statement).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+}
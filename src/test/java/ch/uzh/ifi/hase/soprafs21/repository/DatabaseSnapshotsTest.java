@@ -0,0 +1,84 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatabaseSnapshotsTest {
+
+    @TempDir
+    Path directory;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private DatabaseSnapshots databaseSnapshots;
+
+    @BeforeEach
+    public void setup() {
+        // the database is closed whenever the last connection is, like after a shutdown
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:file:" + directory.resolve("users"), "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE \"user\" (id BIGINT PRIMARY KEY, username VARCHAR(255) NOT NULL UNIQUE)");
+        jdbcTemplate.execute("INSERT INTO \"user\" SELECT X, 'username' || X FROM SYSTEM_RANGE(1, 1000)");
+        databaseSnapshots = new DatabaseSnapshots(dataSource, directory.toString(), "users", 2, 1000);
+    }
+
+    @Test
+    public void takeSnapshot_newestSnapshotsKept() throws Exception {
+        // when
+        Path first = databaseSnapshots.takeSnapshot();
+        Thread.sleep(5);
+        Path second = databaseSnapshots.takeSnapshot();
+        Thread.sleep(5);
+        Path third = databaseSnapshots.takeSnapshot();
+
+        // then
+        assertFalse(Files.exists(first));
+        assertEquals(List.of(second, third), DatabaseSnapshots.snapshots(directory, "users"));
+    }
+
+    @Test
+    public void restoreLatestSnapshotIfMissing_missingDatabase_restored() throws Exception {
+        // given
+        databaseSnapshots.takeSnapshot();
+        Thread.sleep(5);
+        Path latest = databaseSnapshots.takeSnapshot();
+        // after the snapshot, lost with the database file
+        jdbcTemplate.execute("INSERT INTO \"user\" VALUES (1001, 'username1001')");
+        Files.delete(directory.resolve("users.mv.db"));
+
+        // when
+        Path restored = DatabaseSnapshots.restoreLatestSnapshotIfMissing(directory, "users");
+
+        // then
+        assertEquals(latest, restored);
+        assertEquals(1000, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM \"user\"", Long.class));
+    }
+
+    @Test
+    public void restoreLatestSnapshotIfMissing_existingDatabase_untouched() throws Exception {
+        // given
+        databaseSnapshots.takeSnapshot();
+        jdbcTemplate.execute("INSERT INTO \"user\" VALUES (1001, 'username1001')");
+
+        // when
+        Path restored = DatabaseSnapshots.restoreLatestSnapshotIfMissing(directory, "users");
+
+        // then
+        assertNull(restored);
+        assertEquals(1001, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM \"user\"", Long.class));
+    }
+
+    @Test
+    public void restoreLatestSnapshotIfMissing_noSnapshot_nothingRestored() {
+        assertNull(DatabaseSnapshots.restoreLatestSnapshotIfMissing(directory.resolve("empty"), "users"));
+    }
+}
@@ -2,13 +2,17 @@ package ch.uzh.ifi.hase.soprafs21.repository;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -41,4 +45,58 @@ public class UserRepositoryIntegrationTest {
         assertEquals(found.getToken(), user.getToken());
         assertEquals(found.getStatus(), user.getStatus());
     }
+
+    @Test
+    public void findUsersGetDTOsByIdGreaterThan_returnsNextPage() {
+        // given
+        User[] users = new User[3];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User();
+            users[i].setName("name" + i);
+            users[i].setUsername("username" + i);
+            users[i].setPassword("password");
+            users[i].setStatus(UserStatus.OFFLINE);
+            users[i].setToken("token" + i);
+            entityManager.persist(users[i]);
+        }
+        entityManager.flush();
+
+        // when
+        Slice<UsersGetDTO> firstPage = userRepository.findUsersGetDTOsByIdGreaterThan(0L, PageRequest.of(0, 2, Sort.by("id")));
+        long cursor = firstPage.getContent().get(1).getId();
+        Slice<UsersGetDTO> secondPage = userRepository.findUsersGetDTOsByIdGreaterThan(cursor, PageRequest.of(0, 2, Sort.by("id")));
+
+        // then
+        assertEquals(2, firstPage.getNumberOfElements());
+        assertTrue(firstPage.hasNext());
+        assertEquals(users[0].getId(), firstPage.getContent().get(0).getId());
+        assertEquals(1, secondPage.getNumberOfElements());
+        assertFalse(secondPage.hasNext());
+        assertEquals(users[2].getId(), secondPage.getContent().get(0).getId());
+    }
+
+    @Test
+    public void findUserGetDTOByToken_selectsIntoDTO() {
+        // given
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setPassword("password");
+        user.setStatus(UserStatus.ONLINE);
+        user.setToken("1");
+
+        entityManager.persist(user);
+        entityManager.flush();
+        entityManager.clear();
+
+        // when
+        UserGetDTO found = userRepository.findUserGetDTOByToken(user.getToken());
+
+        // then -> the DTO is filled directly by the query
+        assertEquals(user.getId(), found.getId());
+        assertEquals(user.getUsername(), found.getUsername());
+        assertEquals(user.getToken(), found.getToken());
+        assertEquals(user.getStatus(), found.getStatus());
+        assertEquals(0L, found.getVersion());
+    }
 }
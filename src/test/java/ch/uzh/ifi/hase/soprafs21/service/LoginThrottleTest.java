@@ -0,0 +1,106 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginThrottleTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void check_burstPerUsername_thenTooManyRequests() {
+        // given
+        LoginThrottle loginThrottle = new LoginThrottle(true, 1024, 3, 1, 100, 1, meterRegistry);
+
+        // when -> three attempts from different addresses are fine, the fourth is not
+        for (int i = 0; i < 3; i++) {
+            assertNull(loginThrottle.check("username", "10.0.0." + i));
+        }
+        ResponseStatusException throttled = loginThrottle.check("username", "10.0.0.3");
+
+        // then
+        assertNotNull(throttled);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, throttled.getStatus());
+        assertNull(loginThrottle.check("otherUsername", "10.0.0.3"));
+        assertEquals(1, meterRegistry.counter("users.logins", "outcome", "throttled").count());
+    }
+
+    @Test
+    public void check_burstPerAddress_thenTooManyRequests() {
+        // given
+        LoginThrottle loginThrottle = new LoginThrottle(true, 1024, 100, 1, 3, 1, meterRegistry);
+
+        // when -> one address trying many usernames
+        for (int i = 0; i < 3; i++) {
+            assertNull(loginThrottle.check("username" + i, "10.0.0.1"));
+        }
+
+        // then
+        assertNotNull(loginThrottle.check("username3", "10.0.0.1"));
+        assertNull(loginThrottle.check("username3", "10.0.0.2"));
+    }
+
+    @Test
+    public void check_afterInterval_attemptAllowedAgain() throws Exception {
+        // given -> one attempt every 10 ms
+        LoginThrottle loginThrottle = new LoginThrottle(true, 1024, 1, 6000, 100, 6000, meterRegistry);
+        assertNull(loginThrottle.check("username", "10.0.0.1"));
+        assertNotNull(loginThrottle.check("username", "10.0.0.1"));
+
+        // when
+        Thread.sleep(20);
+
+        // then
+        assertNull(loginThrottle.check("username", "10.0.0.1"));
+    }
+
+    @Test
+    public void check_disabled_neverThrottled() {
+        LoginThrottle loginThrottle = new LoginThrottle(false, 1024, 1, 1, 1, 1, meterRegistry);
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(loginThrottle.check("username", "10.0.0.1"));
+        }
+    }
+
+    @Test
+    public void check_concurrentAttempts_exactlyBurstAllowed() throws Exception {
+        // given
+        LoginThrottle loginThrottle = new LoginThrottle(true, 1024, 50, 1, 1000000, 1, meterRegistry);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when -> 8 threads with 1000 attempts each for the same username
+        List<Future<Integer>> allowed = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            String address = "10.0.0." + thread;
+            allowed.add(executor.submit(() -> {
+                int count = 0;
+                for (int i = 0; i < 1000; i++) {
+                    if (loginThrottle.check("username", address) == null) {
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        int total = 0;
+        for (Future<Integer> count : allowed) {
+            total += count.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // then
+        assertEquals(50, total);
+    }
+}
@@ -0,0 +1,132 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PresenceRegistryTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @InjectMocks
+    private PresenceRegistry presenceRegistry;
+
+    @BeforeEach
+    public void setup() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    public void statusOf_unchangedUser_returnsPersistedStatus() {
+        assertEquals(UserStatus.OFFLINE, presenceRegistry.statusOf(1L, UserStatus.OFFLINE));
+    }
+
+    @Test
+    public void applyTo_changedUser_setsCurrentStatus() {
+        // given
+        presenceRegistry.markOnline(1L);
+        User user = new User();
+        user.setId(1L);
+        user.setStatus(UserStatus.OFFLINE);
+
+        // when
+        presenceRegistry.applyTo(user);
+
+        // then
+        assertEquals(UserStatus.ONLINE, user.getStatus());
+    }
+
+    @Test
+    public void flush_writesOneBatchPerStatus() {
+        // given
+        presenceRegistry.markOnline(1L);
+        presenceRegistry.markOnline(2L);
+        presenceRegistry.markOnline(3L);
+        presenceRegistry.markOffline(3L);
+
+        // when
+        presenceRegistry.flush();
+
+        // then
+        Mockito.verify(userRepository).updateStatus(UserStatus.ONLINE, Arrays.asList(1L, 2L));
+        Mockito.verify(userRepository).updateStatus(UserStatus.OFFLINE, Collections.singletonList(3L));
+    }
+
+    @Test
+    public void flush_nothingChanged_noUpdate() {
+        // given -> the status was already written by the first flush
+        presenceRegistry.markOnline(1L);
+        presenceRegistry.flush();
+        presenceRegistry.markOnline(1L);
+
+        // when
+        presenceRegistry.flush();
+
+        // then
+        Mockito.verify(userRepository, Mockito.times(1)).updateStatus(Mockito.any(), Mockito.anyCollection());
+    }
+
+    @Test
+    public void flush_updateFails_retriedOnNextFlush() {
+        // given
+        presenceRegistry.markOnline(1L);
+        Mockito.when(userRepository.updateStatus(Mockito.any(), Mockito.anyCollection()))
+                .thenThrow(new IllegalStateException("database not available"))
+                .thenReturn(1);
+
+        // when
+        presenceRegistry.flush();
+        presenceRegistry.flush();
+
+        // then
+        Mockito.verify(userRepository, Mockito.times(2)).updateStatus(UserStatus.ONLINE, Collections.singletonList(1L));
+    }
+
+    @Test
+    public void flush_concurrentLoginsAndLogouts_writesLastStatus() throws Exception {
+        // given -> logins and logouts of the same user racing each other
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> changes = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            changes.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (ThreadLocalRandom.current().nextBoolean()) {
+                        presenceRegistry.markOnline(1L);
+                    }
+                    else {
+                        presenceRegistry.markOffline(1L);
+                    }
+                }
+            }));
+        }
+        for (Future<?> change : changes) {
+            change.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // when
+        presenceRegistry.flush();
+
+        // then -> the status written is the one in memory
+        Mockito.verify(userRepository).updateStatus(presenceRegistry.statusOf(1L, null), Collections.singletonList(1L));
+    }
+}
@@ -0,0 +1,149 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.ReplicaRoutingDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the UserService with a primary and one replica, two in-memory H2 databases. The replica is only brought up to
+ * date by replicate(), its lag is whatever the replica_status table says.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary",
+        "users.datasource.replicas=" + ReadReplicaIntegrationTest.REPLICA_URL,
+        "users.datasource.replica-lag-query=SELECT lag_ms FROM replica_status",
+        "users.datasource.max-replica-lag-ms=1000",
+        // checked by the tests only
+        "users.datasource.replica-check-interval-ms=3600000"})
+public class ReadReplicaIntegrationTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ReplicaRoutingDataSource dataSource;
+
+    // outside of a transaction, so always on the primary
+    @Autowired
+    private JdbcTemplate primary;
+
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    @BeforeEach
+    public void setup() {
+        replicate();
+        setReplicaLag(0);
+    }
+
+    @Test
+    public void exportUsers_freshReplica_readFromReplica() {
+        // given -> a user that only the replica has
+        insertIntoReplica(1001, "replicaOnly");
+
+        // then
+        assertEquals(List.of("replica-1"), dataSource.getUsableReplicas());
+        assertTrue(exportedUsernames().contains("replicaOnly"));
+        assertNull(primary.queryForObject("SELECT MAX(username) FROM \"user\" WHERE id = 1001", String.class));
+    }
+
+    @Test
+    public void exportUsers_laggingReplica_readFromPrimary() {
+        // given
+        insertIntoReplica(1002, "laggingReplicaOnly");
+
+        // when
+        setReplicaLag(5000);
+
+        // then
+        assertTrue(dataSource.getUsableReplicas().isEmpty());
+        assertFalse(exportedUsernames().contains("laggingReplicaOnly"));
+    }
+
+    @Test
+    public void cachedReads_freshReplica_readFromPrimary() {
+        // given -> the replica differs from the primary, as if it was behind
+        insertIntoReplica(1003, "replicaOnly");
+
+        // then -> the reads whose results are cached or tagged with the roster version do not see it
+        assertEquals(List.of("replica-1"), dataSource.getUsableReplicas());
+        assertThrows(ResponseStatusException.class, () -> userService.findUserById(1003));
+        assertTrue(userService.getUsers(0, 100).stream().noneMatch(user -> user.getId() == 1003));
+        assertThrows(ResponseStatusException.class, () -> userService.getUserByToken("replicaOnlyToken"));
+    }
+
+    @Test
+    public void checkReplicas_unknownLag_readFromPrimary() {
+        // when -> the replica does not know how far behind it is
+        replica.execute("DELETE FROM replica_status");
+        replica.execute("INSERT INTO replica_status VALUES (NULL)");
+        dataSource.checkReplicas();
+
+        // then
+        assertTrue(dataSource.getUsableReplicas().isEmpty());
+
+        // when -> no row at all
+        replica.execute("DELETE FROM replica_status");
+        dataSource.checkReplicas();
+
+        // then
+        assertTrue(dataSource.getUsableReplicas().isEmpty());
+    }
+
+    @Test
+    public void createUser_notReplicatedYet_readsAndLoginOnPrimary() {
+        // when -> written to the primary only
+        User createdUser = userService.createUser(newUser("routingName", "routingUsername"));
+
+        // then -> the reads of this user still find it, the replica does not have it
+        assertEquals(0, replica.queryForObject("SELECT COUNT(*) FROM \"user\" WHERE username = 'routingUsername'", Long.class));
+        assertEquals("routingUsername", userService.getUserByToken(createdUser.getToken()).getUsername());
+        assertEquals("routingUsername", userService.findUserById(createdUser.getId()).getUsername());
+        assertEquals(createdUser.getId(), userService.Login(newUser(null, "routingUsername")).getId());
+    }
+
+    // copies the whole primary to the replica
+    private void replicate() {
+        List<String> script = primary.queryForList("SCRIPT", String.class);
+        replica.execute("DROP ALL OBJECTS");
+        script.forEach(replica::execute);
+    }
+
+    private void setReplicaLag(long lagMs) {
+        replica.execute("CREATE TABLE IF NOT EXISTS replica_status (lag_ms BIGINT)");
+        replica.execute("DELETE FROM replica_status");
+        replica.update("INSERT INTO replica_status VALUES (?)", lagMs);
+        dataSource.checkReplicas();
+    }
+
+    private void insertIntoReplica(long id, String username) {
+        replica.update("INSERT INTO \"user\" (id, name, username, token, password, status, birth_day, creation_date, version) "
+                + "VALUES (?, ?, ?, ?, 'password', 0, '01.01.2000', CURRENT_TIMESTAMP, 0)", id, username + "Name", username, username + "Token");
+    }
+
+    private List<String> exportedUsernames() {
+        List<String> usernames = new ArrayList<>();
+        userService.exportUsers(user -> usernames.add(user.getUsername()));
+        return usernames;
+    }
+
+    private User newUser(String name, String username) {
+        User user = new User();
+        user.setName(name);
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+}
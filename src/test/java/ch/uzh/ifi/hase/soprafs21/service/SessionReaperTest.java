@@ -0,0 +1,158 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionReaperTest {
+
+    private static final long IDLE_TIMEOUT_MS = 10000;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private final TokenCache tokenCache = new TokenCache(10, 600000);
+
+    private final TokenSigner tokenSigner = new TokenSigner(true, "", 86400000);
+
+    private SessionReaper sessionReaper;
+
+    @BeforeEach
+    public void setup() {
+        MockitoAnnotations.openMocks(this);
+        sessionReaper = new SessionReaper(userRepository, presenceRegistry, tokenCache, tokenSigner, eventPublisher, IDLE_TIMEOUT_MS, 100, 8);
+
+        User user = new User();
+        user.setId(1L);
+        Mockito.when(userRepository.findAllById(Collections.singletonList(1L))).thenReturn(Collections.singletonList(user));
+        Mockito.when(presenceRegistry.markOffline(1L)).thenReturn(true);
+    }
+
+    @Test
+    public void expireSessions_idleSession_replacesTokenAndSetsOffline() {
+        // given
+        sessionReaper.start(1L, "token");
+
+        // when -> nothing happens before the idle timeout, everything after it
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS / 2);
+        Mockito.verify(userRepository, Mockito.never()).replaceTokens(Mockito.any());
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS + 1000);
+
+        // then
+        Mockito.verify(userRepository).replaceTokens(Collections.singletonList(1L));
+        Mockito.verify(presenceRegistry).markOffline(1L);
+        Mockito.verify(eventPublisher).publishEvent(Mockito.any(UserChangedEvent.class));
+        assertEquals(0, sessionReaper.size());
+    }
+
+    @Test
+    public void expireSessions_renewedSession_notExpired() {
+        // given
+        sessionReaper.start(1L, "token");
+
+        // when -> the token was used shortly before the session would have expired
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS / 2);
+        sessionReaper.renew(1L, "token");
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS / 2 + 1000);
+
+        // then -> the session is rescheduled, not expired
+        Mockito.verify(userRepository, Mockito.never()).replaceTokens(Mockito.any());
+        assertEquals(1, sessionReaper.size());
+    }
+
+    @Test
+    public void expireSessions_endedSession_ignored() {
+        // given
+        sessionReaper.start(1L, "token");
+        sessionReaper.end(1L);
+
+        // when
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS + 1000);
+
+        // then -> a logout already set the user OFFLINE, the token stays the same
+        Mockito.verify(userRepository, Mockito.never()).replaceTokens(Mockito.any());
+        Mockito.verify(presenceRegistry, Mockito.never()).markOffline(1L);
+    }
+
+    @Test
+    public void expireSessions_restoredSession_usedTokenEvicted() {
+        // given -> a session started on startup without a token, whose token was cached when it was used
+        sessionReaper.start(1L, null);
+        UserGetDTO cachedUser = new UserGetDTO();
+        cachedUser.setId(1L);
+        cachedUser.setToken("storedToken");
+        tokenCache.put(cachedUser);
+        sessionReaper.renew(1L, "storedToken");
+
+        // when
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS + 1000);
+
+        // then
+        assertNull(tokenCache.get("storedToken"));
+    }
+
+    @Test
+    public void expireSessions_signedTokens_revoked() {
+        // given -> two logins, the token of the first one is still valid
+        String firstToken = tokenSigner.sign(1L);
+        String secondToken = tokenSigner.sign(1L);
+        sessionReaper.start(1L, firstToken);
+        sessionReaper.start(1L, secondToken);
+
+        // when
+        sessionReaper.expireSessions(System.currentTimeMillis() + IDLE_TIMEOUT_MS + 1000);
+
+        // then
+        assertNull(tokenSigner.verify(firstToken));
+        assertNull(tokenSigner.verify(secondToken));
+    }
+
+    @Test
+    public void expireSessions_updateFailed_userStaysOnlineAndRetried() {
+        // given
+        sessionReaper.start(1L, "token");
+        UserGetDTO cachedUser = new UserGetDTO();
+        cachedUser.setId(1L);
+        cachedUser.setToken("token");
+        tokenCache.put(cachedUser);
+        Mockito.when(userRepository.replaceTokens(Mockito.any())).thenThrow(new RuntimeException("database down"));
+
+        // when
+        long now = System.currentTimeMillis() + IDLE_TIMEOUT_MS + 1000;
+        sessionReaper.expireSessions(now);
+
+        // then -> the token still works, so nothing changed
+        Mockito.verify(presenceRegistry, Mockito.never()).markOffline(1L);
+        Mockito.verify(eventPublisher, Mockito.never()).publishEvent(Mockito.any());
+        assertNotNull(tokenCache.get("token"));
+        assertEquals(1, sessionReaper.size());
+
+        // when -> the update succeeds with the next tick
+        Mockito.reset(userRepository);
+        User user = new User();
+        user.setId(1L);
+        Mockito.when(userRepository.findAllById(Collections.singletonList(1L))).thenReturn(Collections.singletonList(user));
+        sessionReaper.expireSessions(now + 100);
+
+        // then
+        Mockito.verify(userRepository).replaceTokens(Collections.singletonList(1L));
+        assertNull(tokenCache.get("token"));
+        assertEquals(0, sessionReaper.size());
+    }
+}
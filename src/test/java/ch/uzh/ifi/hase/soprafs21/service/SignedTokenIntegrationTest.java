@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.querycount.QueryCounter;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the UserService with users.tokens.signed=true against its own in-memory database.
+ */
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:signed", "users.tokens.signed=true", QueryCounter.PROPERTY})
+public class SignedTokenIntegrationTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    public void createUserAndLogin_signedTokens_verifiedWithoutDatabase() throws Exception {
+        // given
+        User createdUser = userService.createUser(newUser("signedName", "signedUsername"));
+        User loggedInUser = userService.Login(newUser(null, "signedUsername"));
+
+        // then -> both tokens are signed and belong to the user, no statement is needed to find that out
+        assertTrue(createdUser.getToken().startsWith(TokenSigner.PREFIX));
+        assertNotEquals(createdUser.getToken(), loggedInUser.getToken());
+        assertEquals(createdUser.getId(), QueryCounter.assertAtMost("UserService.getUserIdByToken (signed)", 0,
+                () -> userService.getUserIdByToken(loggedInUser.getToken())));
+
+        UserGetDTO user = userService.getUserByToken(createdUser.getToken());
+        assertEquals("signedUsername", user.getUsername());
+        assertEquals(createdUser.getToken(), user.getToken());
+    }
+
+    @Test
+    public void logout_signedToken_revoked() {
+        // given
+        userService.createUser(newUser("logoutName", "logoutUsername"));
+        User loggedInUser = userService.Login(newUser(null, "logoutUsername"));
+        String token = loggedInUser.getToken();
+        User logoutUser = new User();
+        logoutUser.setToken(token);
+
+        // when
+        userService.Logout(logoutUser);
+
+        // then
+        assertThrows(ResponseStatusException.class, () -> userService.getUserByToken(token));
+        assertThrows(ResponseStatusException.class, () -> userService.Logout(logoutUser));
+    }
+
+    private User newUser(String name, String username) {
+        User user = new User();
+        user.setName(name);
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+}
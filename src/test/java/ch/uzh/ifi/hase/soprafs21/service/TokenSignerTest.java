@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenSignerTest {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+
+    private final TokenSigner tokenSigner = new TokenSigner(true, SECRET, 60000);
+
+    @Test
+    public void verify_signedToken_returnsUserId() {
+        String token = tokenSigner.sign(42L);
+
+        assertTrue(tokenSigner.isSigned(token));
+        assertEquals(42L, tokenSigner.verify(token));
+    }
+
+    @Test
+    public void verify_otherSecret_rejected() {
+        String token = new TokenSigner(true, "", 60000).sign(42L);
+
+        assertNull(tokenSigner.verify(token));
+    }
+
+    @Test
+    public void verify_changedUserId_rejected() {
+        // given -> the id of another user is put into a valid token
+        String token = tokenSigner.sign(42L);
+        String forgedToken = TokenSigner.PREFIX + "43" + token.substring(TokenSigner.PREFIX.length() + 2);
+
+        // then
+        assertNull(tokenSigner.verify(forgedToken));
+        assertNull(tokenSigner.verify("v1.garbage"));
+        assertNull(tokenSigner.verify("6f1f2c1e-6c3a-4a5e-9d1c-1b0f0c4a2f00"));
+    }
+
+    @Test
+    public void verify_expiredToken_rejected() {
+        String token = new TokenSigner(true, SECRET, -1).sign(42L);
+
+        assertNull(tokenSigner.verify(token));
+    }
+
+    @Test
+    public void revoke_tokenRejectedUntilExpiry() {
+        // given
+        String token = tokenSigner.sign(42L);
+        String otherToken = tokenSigner.sign(42L);
+
+        // when
+        tokenSigner.revoke(token);
+        tokenSigner.purgeRevokedTokens();
+
+        // then -> only the revoked token is rejected, it is kept until it expires
+        assertNull(tokenSigner.verify(token));
+        assertEquals(42L, tokenSigner.verify(otherToken));
+        assertEquals(1, tokenSigner.revokedTokenCount());
+    }
+}
@@ -0,0 +1,107 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UsersGetDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+public class UserSearchIndexTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @InjectMocks
+    private UserSearchIndex userSearchIndex;
+
+    @BeforeEach
+    public void setup() {
+        MockitoAnnotations.openMocks(this);
+        given(userRepository.streamAllUsersGetDTOs()).willReturn(Stream.of(
+                user(1L, "Anna Meier", "anna"),
+                user(2L, "Hans Muster", "hansi"),
+                user(3L, "Annette Keller", "annette.k"),
+                user(4L, "Peter Annen", "pete")));
+        userSearchIndex.seed();
+    }
+
+    @Test
+    public void search_prefix_usernamesBeforeNames() {
+        // "ann" is the start of two usernames and of the last name of Peter Annen
+        assertEquals(Arrays.asList(1L, 3L, 4L), ids(userSearchIndex.search("ann", 10)));
+    }
+
+    @Test
+    public void search_ignoresCase() {
+        assertEquals(Collections.singletonList(2L), ids(userSearchIndex.search("HANS m", 10)));
+    }
+
+    @Test
+    public void search_oneTypo_found() {
+        // swapped, replaced, missing and additional character
+        assertEquals(Collections.singletonList(2L), ids(userSearchIndex.search("hnasi", 10)));
+        assertEquals(Collections.singletonList(4L), ids(userSearchIndex.search("petr", 10)));
+        assertEquals(Collections.singletonList(2L), ids(userSearchIndex.search("musster", 10)));
+        assertEquals(Collections.singletonList(4L), ids(userSearchIndex.search("pxte", 10)));
+    }
+
+    @Test
+    public void search_shortQuery_noTypoAllowed() {
+        assertTrue(userSearchIndex.search("px", 10).isEmpty());
+    }
+
+    @Test
+    public void search_limit_bestMatchesOnly() {
+        assertEquals(Arrays.asList(1L, 3L), ids(userSearchIndex.search("ann", 2)));
+    }
+
+    @Test
+    public void put_editedUser_oldTermsRemoved() {
+        // when
+        userSearchIndex.put(user(2L, "Johann Muster", "jomu"));
+
+        // then
+        assertTrue(userSearchIndex.search("hansi", 10).isEmpty());
+        assertEquals(Collections.singletonList(2L), ids(userSearchIndex.search("johann", 10)));
+        assertEquals(4, userSearchIndex.size());
+    }
+
+    @Test
+    public void search_returnsCopies() {
+        // when
+        userSearchIndex.search("anna", 10).get(0).setStatus(UserStatus.ONLINE);
+
+        // then
+        assertEquals(UserStatus.OFFLINE, userSearchIndex.search("anna", 10).get(0).getStatus());
+    }
+
+    private static UsersGetDTO user(long id, String name, String username) {
+        UsersGetDTO user = new UsersGetDTO();
+        user.setId(id);
+        user.setName(name);
+        user.setUsername(username);
+        user.setStatus(UserStatus.OFFLINE);
+        return user;
+    }
+
+    private static List<Long> ids(List<UsersGetDTO> users) {
+        List<Long> ids = new ArrayList<>();
+        for (UsersGetDTO user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+}
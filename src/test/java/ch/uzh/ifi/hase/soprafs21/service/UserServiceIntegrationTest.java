@@ -3,14 +3,22 @@ package ch.uzh.ifi.hase.soprafs21.service;
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,6 +37,15 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private RosterVersion rosterVersion;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SessionReaper sessionReaper;
+
     @BeforeEach
     public void setup() {
         userRepository.deleteAll();
@@ -73,4 +90,178 @@ public class UserServiceIntegrationTest {
         // check that an error is thrown
         assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
     }
+
+    @Test
+    public void createUsers_conflictingUsers_onlyUniqueUsersCreated() {
+        // given -> one user already exists
+        User existingUser = new User();
+        existingUser.setName("existingName");
+        existingUser.setUsername("existingUsername");
+        existingUser.setPassword("password");
+        userService.createUser(existingUser);
+
+        List<User> newUsers = Arrays.asList(
+                newUser("name1", "username1"),
+                newUser("name2", "existingUsername"),
+                newUser("name3", "username1"),
+                newUser("name4", "username4"));
+
+        // when
+        Map<Integer, ResponseStatusException> errors = userService.createUsers(newUsers);
+
+        // then -> the second user clashes with the existing user, the third one with the first one of the batch
+        assertEquals(2, errors.size());
+        assertTrue(errors.containsKey(1));
+        assertTrue(errors.containsKey(2));
+        assertNotNull(newUsers.get(0).getId());
+        assertNotNull(newUsers.get(3).getToken());
+        assertNotNull(userRepository.findByUsername("username4"));
+        assertEquals(3, userRepository.count());
+    }
+
+    private User newUser(String name, String username) {
+        User user = new User();
+        user.setName(name);
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+
+    @Test
+    public void createUser_usernameUnknownToFilter_throwsException() {
+        // given -> a user that was written without going through the service, so the filter does not know it
+        User existingUser = newUser("existingName", "existingUsername");
+        existingUser.setToken("existingToken");
+        existingUser.setStatus(UserStatus.OFFLINE);
+        userRepository.saveAndFlush(existingUser);
+
+        // when -> the unique constraint is violated on insert
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.createUser(newUser("otherName", "existingUsername")));
+
+        // then -> same error as if the lookup had found the user
+        assertEquals("The username provided is not unique. Therefore, the user could not be created!", exception.getReason());
+    }
+
+    @Test
+    public void createUsers_usernameUnknownToFilter_otherUsersCreated() {
+        // given -> a user that was written without going through the service, so the filter does not know it
+        User existingUser = newUser("existingName", "existingUsername");
+        existingUser.setToken("existingToken");
+        existingUser.setStatus(UserStatus.OFFLINE);
+        userRepository.saveAndFlush(existingUser);
+
+        List<User> newUsers = Arrays.asList(
+                newUser("name1", "username1"),
+                newUser("name2", "existingUsername"),
+                newUser("name3", "username3"));
+
+        // when -> the unique constraint is violated by the batch insert
+        Map<Integer, ResponseStatusException> errors = userService.createUsers(newUsers);
+
+        // then -> only the conflicting user was not created
+        assertEquals(1, errors.size());
+        assertEquals("The username provided is not unique. Therefore, the user could not be created!", errors.get(1).getReason());
+        assertNotNull(userRepository.findByUsername("username1"));
+        assertNotNull(userRepository.findByUsername("username3"));
+        assertNotNull(newUsers.get(2).getToken());
+        assertEquals(3, userRepository.count());
+    }
+
+    @Test
+    public void editUser_committed_changesRosterVersion() {
+        // given
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+        String versionBeforeEdit = rosterVersion.current();
+
+        // when
+        userService.edit(createdUser.getId(), newUser("otherName", "otherUsername"));
+
+        // then -> the row version and the roster version changed
+        assertNotEquals(versionBeforeEdit, rosterVersion.current());
+        assertEquals(1L, userRepository.findById(createdUser.getId().longValue()).getVersion());
+    }
+
+    @Test
+    public void editUser_tokenCachedBefore_lookupSeesEdit() {
+        // given -> the token is in the TokenCache
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+        userService.getUserByToken(createdUser.getToken());
+
+        // when
+        userService.edit(createdUser.getId(), newUser("otherName", "otherUsername"));
+
+        // then -> evicted once the edit was committed
+        assertEquals("otherUsername", userService.getUserByToken(createdUser.getToken()).getUsername());
+    }
+
+    @Test
+    public void editUser_takenUsernameAndName_throwsException() {
+        // given
+        userService.createUser(newUser("existingName", "existingUsername"));
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+
+        // when -> the unique constraints are violated on flush
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.edit(createdUser.getId(), newUser("otherName", "existingUsername")));
+        ResponseStatusException nameException = assertThrows(ResponseStatusException.class,
+                () -> userService.edit(createdUser.getId(), newUser("existingName", "otherUsername")));
+
+        // then -> same error as for a new user, and the user was not changed
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals("The username provided is not unique. Therefore, the user could not be created!", exception.getReason());
+        assertEquals(HttpStatus.BAD_REQUEST, nameException.getStatus());
+        assertEquals("The name provided is not unique. Therefore, the user could not be created!", nameException.getReason());
+        assertEquals("testUsername", userService.findUserById(createdUser.getId()).getUsername());
+    }
+
+    @Test
+    public void loginAndFindById_repeated_servedFromSecondLevelCache() {
+        // given
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // when
+        userService.Login(newUser(null, "testUsername"));
+        userService.Login(newUser(null, "testUsername"));
+        userService.findUserById(createdUser.getId());
+        userService.findUserById(createdUser.getId());
+
+        // then -> the second login resolved the username and the user from the caches, the second lookup by id too
+        assertTrue(statistics.getNaturalIdCacheHitCount() >= 1);
+        assertTrue(statistics.getSecondLevelCacheHitCount() >= 1);
+        assertTrue(statistics.getQueryCacheHitCount() >= 1);
+    }
+
+    @Test
+    public void editUser_cachedUser_readsChange() {
+        // given -> the user is in the caches
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+        userService.findUserById(createdUser.getId());
+        userService.Login(newUser(null, "testUsername"));
+
+        // when
+        userService.edit(createdUser.getId(), newUser("otherName", "otherUsername"));
+
+        // then -> no stale user is read from the caches
+        assertEquals("otherUsername", userService.findUserById(createdUser.getId()).getUsername());
+        assertEquals(createdUser.getId(), userService.Login(newUser(null, "otherUsername")).getId());
+        assertThrows(ResponseStatusException.class, () -> userService.Login(newUser(null, "testUsername")));
+    }
+
+    @Test
+    public void expireSessions_idleUser_tokenRejectedAndOffline() {
+        // given -> the token was looked up, so it is in the caches
+        User createdUser = userService.createUser(newUser("testName", "testUsername"));
+        String token = createdUser.getToken();
+        userService.getUserByToken(token);
+
+        // when -> the session is idle for longer than the timeout
+        sessionReaper.expireSessions(System.currentTimeMillis() + 24 * 60 * 60 * 1000L);
+
+        // then
+        assertThrows(ResponseStatusException.class, () -> userService.getUserByToken(token));
+        assertEquals(UserStatus.OFFLINE, userService.findUserById(createdUser.getId()).getStatus());
+    }
 }
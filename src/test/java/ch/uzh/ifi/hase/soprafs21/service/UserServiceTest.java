@@ -3,12 +3,17 @@ package ch.uzh.ifi.hase.soprafs21.service;
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.web.server.ResponseStatusException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,6 +23,27 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private TokenCache tokenCache = new TokenCache(10, 600000);
+
+    @Spy
+    private TokenSigner tokenSigner = new TokenSigner(false, "", 86400000);
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private SessionReaper sessionReaper;
+
+    @Spy
+    private UserExistenceFilter userExistenceFilter = new UserExistenceFilter(null, 1000, 0.01);
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private UserService userService;
 
@@ -52,6 +78,17 @@ public class UserServiceTest {
         assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
     }
 
+    @Test
+    public void createUser_unknownUser_noUniquenessLookups() {
+        // when -> the filter has never seen the username and the name
+        userService.createUser(testUser);
+
+        // then
+        Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+        Mockito.verify(userRepository, Mockito.never()).findByName(Mockito.any());
+        assertTrue(userExistenceFilter.mightContainUsername(testUser.getUsername()));
+    }
+
     @Test
     public void createUser_duplicateName_throwsException() {
         // given -> a first user has already been created
@@ -78,5 +115,113 @@ public class UserServiceTest {
         assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
     }
 
+    @Test
+    public void getUserByToken_secondLookup_servedFromCache() {
+        // given
+        testUser.setToken("token");
+        Mockito.when(userRepository.findUserGetDTOByToken("token")).thenReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(testUser));
+
+        // when
+        UserGetDTO first = userService.getUserByToken("token");
+        UserGetDTO second = userService.getUserByToken("token");
+
+        // then -> only the first lookup reached the repository
+        Mockito.verify(userRepository, Mockito.times(1)).findUserGetDTOByToken("token");
+        assertEquals(testUser.getId(), first.getId());
+        assertEquals(testUser.getId(), second.getId());
+        assertEquals(1, tokenCache.getHits());
+        assertEquals(1, tokenCache.getMisses());
+    }
+
+    @Test
+    public void getUserByToken_statusSetOnResult_cacheUnchanged() {
+        // given
+        testUser.setToken("token");
+        testUser.setStatus(UserStatus.OFFLINE);
+        Mockito.when(userRepository.findUserGetDTOByToken("token")).thenReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(testUser));
+        Mockito.when(presenceRegistry.statusOf(Mockito.any(), Mockito.any())).thenReturn(UserStatus.ONLINE);
+
+        // when
+        UserGetDTO first = userService.getUserByToken("token");
+        UserGetDTO second = userService.getUserByToken("token");
+
+        // then -> every lookup gets a copy of its own, the status of the presence registry is not cached
+        assertEquals(UserStatus.ONLINE, first.getStatus());
+        assertNotSame(first, second);
+        assertEquals(UserStatus.OFFLINE, tokenCache.get("token").getStatus());
+    }
+
+    @Test
+    public void logout_evictsToken() {
+        // given -> the token has been looked up before
+        testUser.setToken("token");
+        Mockito.when(userRepository.findUserGetDTOByToken("token")).thenReturn(DTOMapper.INSTANCE.convertEntityToUserGetDTO(testUser));
+        Mockito.when(userRepository.findByToken("token")).thenReturn(testUser);
+        userService.getUserByToken("token");
+
+        // when
+        User logoutUser = new User();
+        logoutUser.setToken("token");
+        userService.Logout(logoutUser);
+        userService.getUserByToken("token");
+
+        // then -> the lookup after the logout had to go to the repository again
+        Mockito.verify(userRepository, Mockito.times(2)).findUserGetDTOByToken("token");
+    }
+
+    @Test
+    public void login_validCredentials_marksUserOnline() {
+        // given
+        testUser.setPassword("password");
+        Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser);
+
+        User loginUser = new User();
+        loginUser.setUsername("testUsername");
+        loginUser.setPassword("password");
+
+        // when
+        User loggedInUser = userService.Login(loginUser);
+
+        // then -> the status is only changed in the registry, nothing is saved
+        assertEquals(testUser.getId(), loggedInUser.getId());
+        Mockito.verify(presenceRegistry).markOnline(testUser.getId());
+        Mockito.verify(sessionReaper).start(testUser.getId(), testUser.getToken());
+        Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+        assertEquals(1, meterRegistry.counter("users.logins", "outcome", "success").count());
+    }
+
+    @Test
+    public void login_wrongPassword_throwsException() {
+        // given
+        testUser.setPassword("password");
+        Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser);
+
+        User loginUser = new User();
+        loginUser.setUsername("testUsername");
+        loginUser.setPassword("wrong");
+
+        // then
+        assertThrows(ResponseStatusException.class, () -> userService.Login(loginUser));
+        Mockito.verify(presenceRegistry, Mockito.never()).markOnline(Mockito.anyLong());
+        assertEquals(1, meterRegistry.counter("users.logins", "outcome", "failure").count());
+    }
+
+    @Test
+    public void login_userWentOnline_publishesStatusChange() {
+        // given
+        testUser.setPassword("password");
+        Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser);
+        Mockito.when(presenceRegistry.markOnline(testUser.getId())).thenReturn(true, false);
+
+        User loginUser = new User();
+        loginUser.setUsername("testUsername");
+        loginUser.setPassword("password");
+
+        // when -> the second login does not change the status anymore
+        userService.Login(loginUser);
+        userService.Login(loginUser);
 
+        // then
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserChangedEvent.class));
+    }
 }